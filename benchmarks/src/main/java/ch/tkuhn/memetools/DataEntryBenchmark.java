@@ -0,0 +1,65 @@
+package ch.tkuhn.memetools;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataEntryBenchmark {
+
+	@Param({"aps", "wos"})
+	private String profile;
+
+	@Param({"42"})
+	private long seed;
+
+	private List<String> lines;
+	private List<String> rawTexts;
+	private DataEntryParser parser;
+	private int next;
+
+	@Setup
+	public void setup() {
+		SyntheticCorpus corpus = new SyntheticCorpus(profile, seed);
+		lines = corpus.makeLines(2000);
+		rawTexts = corpus.makeRawTexts(2000);
+		parser = new DataEntryParser();
+		next = 0;
+	}
+
+	@Benchmark
+	public DataEntry parseLine() {
+		next = (next + 1) % lines.size();
+		return new DataEntry(lines.get(next));
+	}
+
+	@Benchmark
+	public int parseLineInPlace() {
+		next = (next + 1) % lines.size();
+		parser.parse(lines.get(next));
+		return parser.getCitedTextCount();
+	}
+
+	@Benchmark
+	public String normalize() {
+		next = (next + 1) % rawTexts.size();
+		return MemeUtils.normalize(rawTexts.get(next));
+	}
+
+}
@@ -0,0 +1,117 @@
+package ch.tkuhn.memetools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Benchmarks on a per-entry basis. The scorers for recording terms are prepared in the same way as
+// the tools do (screening the whole corpus first or adding terms from a list).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemeScorerBenchmark {
+
+	@Param({"aps", "wos"})
+	private String profile;
+
+	@Param({"2000"})
+	private int entryCount;
+
+	@Param({"10000"})
+	private int termCount;
+
+	@Param({"42"})
+	private long seed;
+
+	private List<DataEntry> entries;
+	private List<String> terms;
+	private int next;
+
+	private MemeScorer screenFast;
+	private MemeScorer screenDecomposed;
+	private MemeScorer recordFast;
+	private MemeScorer recordDecomposed;
+	private MemeScorer recordGiven;
+
+	@Setup
+	public void setup() {
+		SyntheticCorpus corpus = new SyntheticCorpus(profile, seed);
+		entries = new ArrayList<DataEntry>();
+		for (String line : corpus.makeLines(entryCount)) {
+			entries.add(new DataEntry(line));
+		}
+		terms = corpus.makeTerms(termCount);
+
+		screenFast = new MemeScorer(MemeScorer.FAST_SCREEN_MODE);
+		screenDecomposed = new MemeScorer(MemeScorer.DECOMPOSED_SCREEN_MODE);
+
+		recordFast = new MemeScorer(MemeScorer.FAST_SCREEN_MODE);
+		recordDecomposed = new MemeScorer(MemeScorer.DECOMPOSED_SCREEN_MODE);
+		for (DataEntry d : entries) {
+			recordFast.screenTerms(d);
+			recordDecomposed.screenTerms(d);
+		}
+		recordFast.fixTerms();
+		recordGiven = new MemeScorer(MemeScorer.GIVEN_TERMLIST_MODE);
+		for (String t : terms) {
+			recordGiven.addTerm(t);
+		}
+		// Fill the counts, so the score calculation sees realistic values:
+		for (DataEntry d : entries) {
+			recordGiven.recordTerms(d);
+		}
+		next = 0;
+	}
+
+	private DataEntry nextEntry() {
+		next = (next + 1) % entries.size();
+		return entries.get(next);
+	}
+
+	@Benchmark
+	public void screenTermsFast() {
+		screenFast.screenTerms(nextEntry());
+	}
+
+	@Benchmark
+	public void screenTermsDecomposed() {
+		screenDecomposed.screenTerms(nextEntry());
+	}
+
+	@Benchmark
+	public void recordTermsFast() {
+		recordFast.recordTerms(nextEntry());
+	}
+
+	@Benchmark
+	public void recordTermsDecomposed() {
+		recordDecomposed.recordTerms(nextEntry());
+	}
+
+	@Benchmark
+	public void recordTermsGiven() {
+		recordGiven.recordTerms(nextEntry());
+	}
+
+	@Benchmark
+	public double[] calculateMemeScoreValues() {
+		next = (next + 1) % terms.size();
+		return recordGiven.calculateMemeScoreValues(terms.get(next), 3);
+	}
+
+}
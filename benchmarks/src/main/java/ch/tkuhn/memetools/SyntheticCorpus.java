@@ -0,0 +1,170 @@
+package ch.tkuhn.memetools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Seeded generator for corpora in the format of the prepared data files. Words follow a Zipf
+// distribution, and multi-word phrases are planted into citing texts and (more often) into the texts
+// they cite, so that there are memes to be found. Profile "aps" has title+abstract texts with a
+// moderate number of citations; "wos" has titles only with more citations per entry.
+public class SyntheticCorpus {
+
+	private static final int VOCABULARY_SIZE = 50000;
+	private static final int PHRASE_COUNT = 2000;
+	private static final String[] PUNCTUATION = new String[] {".", ",", ":", ";"};
+
+	private Random random;
+	private int meanLength;
+	private int lengthDeviation;
+	private int minLength;
+	private int meanCitations;
+
+	private String[] words;
+	private double[] cumulative;
+	private String[][] phrases;
+
+	public SyntheticCorpus(String profile, long seed) {
+		random = new Random(seed);
+		if (profile.equals("aps")) {
+			meanLength = 150;
+			lengthDeviation = 60;
+			minLength = 20;
+			meanCitations = 12;
+		} else if (profile.equals("wos")) {
+			meanLength = 12;
+			lengthDeviation = 5;
+			minLength = 3;
+			meanCitations = 25;
+		} else {
+			throw new RuntimeException("Unknown profile: " + profile);
+		}
+		words = new String[VOCABULARY_SIZE];
+		cumulative = new double[VOCABULARY_SIZE];
+		double sum = 0;
+		for (int i = 0 ; i < VOCABULARY_SIZE ; i++) {
+			words[i] = makeWord(i);
+			sum += 1.0 / (i + 1);
+			cumulative[i] = sum;
+		}
+		for (int i = 0 ; i < VOCABULARY_SIZE ; i++) {
+			cumulative[i] /= sum;
+		}
+		phrases = new String[PHRASE_COUNT][];
+		for (int i = 0 ; i < PHRASE_COUNT ; i++) {
+			phrases[i] = new String[2 + random.nextInt(3)];
+			for (int j = 0 ; j < phrases[i].length ; j++) {
+				phrases[i][j] = words[100 + random.nextInt(VOCABULARY_SIZE - 100)];
+			}
+		}
+	}
+
+	// Entries in the format of prepared data files (date, ID, text, cited texts)
+	public List<String> makeLines(int count) {
+		List<String> lines = new ArrayList<String>(count);
+		for (int i = 0 ; i < count ; i++) {
+			int phrase = random.nextInt(PHRASE_COUNT);
+			String text = makeText(phrase, 0.5);
+			DataEntry d = new DataEntry("E" + i, 1950 + (i * 60 / count) + "-01-01", text);
+			int c = (int) Math.round(-Math.log(1 - random.nextDouble()) * meanCitations);
+			for (int j = 0 ; j < c ; j++) {
+				d.addCitedText(makeText(phrase, 0.3));
+			}
+			lines.add(d.getLine());
+		}
+		return lines;
+	}
+
+	// Texts before normalization, with capitalization and punctuation attached to words
+	public List<String> makeRawTexts(int count) {
+		List<String> texts = new ArrayList<String>(count);
+		for (int i = 0 ; i < count ; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (String w : makeTokens(random.nextInt(PHRASE_COUNT), 0.5)) {
+				if (w.length() == 1 && Arrays.asList(PUNCTUATION).contains(w)) {
+					sb.append(w);
+					continue;
+				}
+				if (sb.length() > 0) sb.append(random.nextInt(20) == 0 ? "  " : " ");
+				if (random.nextInt(10) == 0) {
+					sb.append(Character.toUpperCase(w.charAt(0))).append(w.substring(1));
+				} else {
+					sb.append(w);
+				}
+			}
+			texts.add(sb.toString());
+		}
+		return texts;
+	}
+
+	// Terms as given in term lists: the planted phrases and frequent words
+	public List<String> makeTerms(int count) {
+		if (count > VOCABULARY_SIZE) {
+			throw new RuntimeException("Too many terms: " + count + " (at most " + VOCABULARY_SIZE + ")");
+		}
+		List<String> terms = new ArrayList<String>(count);
+		for (int i = 0 ; i < count ; i++) {
+			if (i % 2 == 0 && i / 2 < PHRASE_COUNT) {
+				terms.add(join(phrases[i / 2]));
+			} else {
+				terms.add(words[i]);
+			}
+		}
+		return terms;
+	}
+
+	private String makeText(int phrase, double phraseProbability) {
+		return join(makeTokens(phrase, phraseProbability));
+	}
+
+	private List<String> makeTokens(int phrase, double phraseProbability) {
+		int length = (int) Math.round(meanLength + random.nextGaussian() * lengthDeviation);
+		length = Math.max(length, minLength);
+		List<String> tokens = new ArrayList<String>(length + 4);
+		while (tokens.size() < length) {
+			if (random.nextDouble() < 0.05) {
+				tokens.add(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+			} else {
+				tokens.add(nextWord());
+			}
+		}
+		if (random.nextDouble() < phraseProbability) {
+			int pos = random.nextInt(tokens.size() + 1);
+			tokens.addAll(pos, Arrays.asList(phrases[phrase]));
+		}
+		return tokens;
+	}
+
+	private String nextWord() {
+		int i = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (i < 0) i = -i - 1;
+		return words[Math.min(i, VOCABULARY_SIZE - 1)];
+	}
+
+	private static String makeWord(int i) {
+		StringBuilder sb = new StringBuilder();
+		int n = i;
+		do {
+			sb.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		// Frequent words are short, as in natural language:
+		if (i >= 100) sb.append("ion");
+		return sb.toString();
+	}
+
+	private static String join(Iterable<String> tokens) {
+		StringBuilder sb = new StringBuilder();
+		for (String t : tokens) {
+			if (sb.length() > 0) sb.append(" ");
+			sb.append(t);
+		}
+		return sb.toString();
+	}
+
+	private static String join(String[] tokens) {
+		return join(Arrays.asList(tokens));
+	}
+
+}
@@ -0,0 +1,3 @@
+#!/bin/bash
+
+$( dirname "${BASH_SOURCE[0]}" )/exec-class.sh ch.tkuhn.memetools.CompileCorpus "$@"
@@ -0,0 +1,248 @@
+package ch.tkuhn.memetools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compact binary form of a prepared data file: entries store their texts as token IDs (variable
+// length encoded) and the token strings are stored once in a dictionary at the end of the file.
+// Entries are grouped into blocks that are memory-mapped one at a time when reading.
+public class BinaryCorpus {
+
+	public static final String FILE_EXTENSION = ".corpus";
+
+	private static final int MAGIC = 0x4d54434f;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int TRAILER_SIZE = 16;
+	private static final long BLOCK_SIZE = 64 * 1024 * 1024;
+
+	private static final int AUTHORS_FLAG = 1;
+	private static final int CITATIONS_FLAG = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private BinaryCorpus() {}  // no instances allowed
+
+	public static boolean isBinaryCorpus(File file) {
+		return file.getName().endsWith(FILE_EXTENSION);
+	}
+
+	public static class Writer {
+
+		private DataOutputStream out;
+		private long position;
+		private TokenDictionary dictionary = new TokenDictionary();
+		private List<Long> blockOffsets = new ArrayList<Long>();
+		private List<Integer> blockEntryCounts = new ArrayList<Integer>();
+		private int blockEntryCount;
+
+		public Writer(File file) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			position = HEADER_SIZE;
+		}
+
+		public void write(DataEntry d) throws IOException {
+			if (blockOffsets.isEmpty() || position - blockOffsets.get(blockOffsets.size()-1) >= BLOCK_SIZE) {
+				finishBlock();
+				blockOffsets.add(position);
+			}
+			writeString(d.getDate());
+			writeString(d.getId());
+			int flags = 0;
+			if (d.getAuthors() != null) flags |= AUTHORS_FLAG;
+			if (d.getCitations() != null) flags |= CITATIONS_FLAG;
+			out.writeByte(flags);
+			position++;
+			if (d.getAuthors() != null) writeString(d.getAuthors());
+			if (d.getCitations() != null) writeString(d.getCitations());
+			writeTokens(d.getText());
+			List<String> citedText = d.getCitedText();
+			writeVarInt(citedText.size());
+			for (String c : citedText) {
+				writeTokens(c);
+			}
+			blockEntryCount++;
+		}
+
+		public void close() throws IOException {
+			finishBlock();
+			long dictionaryOffset = position;
+			writeVarInt(dictionary.size());
+			for (int i = 0 ; i < dictionary.size() ; i++) {
+				writeString(dictionary.getToken(i));
+			}
+			long blockTableOffset = position;
+			writeVarInt(blockOffsets.size());
+			for (int i = 0 ; i < blockOffsets.size() ; i++) {
+				out.writeLong(blockOffsets.get(i));
+				out.writeInt(blockEntryCounts.get(i));
+			}
+			out.writeLong(dictionaryOffset);
+			out.writeLong(blockTableOffset);
+			out.close();
+		}
+
+		private void finishBlock() {
+			if (blockOffsets.size() > blockEntryCounts.size()) {
+				blockEntryCounts.add(blockEntryCount);
+			}
+			blockEntryCount = 0;
+		}
+
+		private void writeTokens(String text) throws IOException {
+			// Splitting with limit -1 keeps empty tokens, so the text can be restored exactly:
+			String[] tokens = text.split(" ", -1);
+			writeVarInt(tokens.length);
+			for (String t : tokens) {
+				writeVarInt(dictionary.add(t));
+			}
+		}
+
+		private void writeString(String s) throws IOException {
+			byte[] bytes = s.getBytes(UTF8);
+			writeVarInt(bytes.length);
+			out.write(bytes);
+			position += bytes.length;
+		}
+
+		private void writeVarInt(int v) throws IOException {
+			while ((v & ~0x7f) != 0) {
+				out.writeByte((v & 0x7f) | 0x80);
+				v >>>= 7;
+				position++;
+			}
+			out.writeByte(v);
+			position++;
+		}
+
+	}
+
+	public static class Reader extends DataEntryReader {
+
+		private RandomAccessFile file;
+		private FileChannel channel;
+		private String[] tokens;
+		private long[] blockOffsets;
+		private int[] blockEntryCounts;
+		private long dataEnd;
+		private int block = -1;
+		private int remaining;
+		private ByteBuffer buffer;
+		private byte[] bytes = new byte[256];
+
+		public Reader(File f) throws IOException {
+			file = new RandomAccessFile(f, "r");
+			channel = file.getChannel();
+			if (file.length() < HEADER_SIZE + TRAILER_SIZE || file.readInt() != MAGIC) {
+				throw new RuntimeException("Not a binary corpus file: " + f);
+			}
+			int version = file.readInt();
+			if (version != VERSION) {
+				throw new RuntimeException("Unsupported binary corpus version: " + version);
+			}
+			file.seek(file.length() - TRAILER_SIZE);
+			long dictionaryOffset = file.readLong();
+			long blockTableOffset = file.readLong();
+			dataEnd = dictionaryOffset;
+
+			buffer = map(dictionaryOffset, blockTableOffset);
+			tokens = new String[readVarInt()];
+			for (int i = 0 ; i < tokens.length ; i++) {
+				tokens[i] = readString();
+			}
+
+			buffer = map(blockTableOffset, file.length() - TRAILER_SIZE);
+			int blockCount = readVarInt();
+			blockOffsets = new long[blockCount];
+			blockEntryCounts = new int[blockCount];
+			for (int i = 0 ; i < blockCount ; i++) {
+				blockOffsets[i] = buffer.getLong();
+				blockEntryCounts[i] = buffer.getInt();
+			}
+			buffer = null;
+		}
+
+		public String[] getTokens() {
+			return tokens;
+		}
+
+		@Override
+		public DataEntry read() throws IOException {
+			while (remaining == 0) {
+				block++;
+				if (block >= blockOffsets.length) return null;
+				long end = (block + 1 < blockOffsets.length ? blockOffsets[block+1] : dataEnd);
+				buffer = map(blockOffsets[block], end);
+				remaining = blockEntryCounts[block];
+			}
+			remaining--;
+			String date = readString();
+			String id = readString();
+			int flags = buffer.get();
+			String authors = null;
+			String citations = null;
+			if ((flags & AUTHORS_FLAG) != 0) authors = readString();
+			if ((flags & CITATIONS_FLAG) != 0) citations = readString();
+			String[] text = readTokens();
+			int n = readVarInt();
+			List<String[]> citedText = new ArrayList<String[]>(n);
+			for (int i = 0 ; i < n ; i++) {
+				citedText.add(readTokens());
+			}
+			return new DataEntry(id, date, authors, citations, text, citedText);
+		}
+
+		@Override
+		public void close() throws IOException {
+			buffer = null;
+			channel.close();
+			file.close();
+		}
+
+		private ByteBuffer map(long start, long end) throws IOException {
+			if (end - start > Integer.MAX_VALUE) {
+				throw new RuntimeException("Block too large: " + (end - start));
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		}
+
+		private String[] readTokens() {
+			String[] t = new String[readVarInt()];
+			for (int i = 0 ; i < t.length ; i++) {
+				t[i] = tokens[readVarInt()];
+			}
+			return t;
+		}
+
+		private String readString() {
+			int l = readVarInt();
+			if (bytes.length < l) bytes = new byte[Math.max(l, bytes.length * 2)];
+			buffer.get(bytes, 0, l);
+			return new String(bytes, 0, l, UTF8);
+		}
+
+		private int readVarInt() {
+			int v = 0;
+			int shift = 0;
+			byte b;
+			while ((b = buffer.get()) < 0) {
+				v |= (b & 0x7f) << shift;
+				shift += 7;
+			}
+			return v | (b << shift);
+		}
+
+	}
+
+}
@@ -1,6 +1,5 @@
 package ch.tkuhn.memetools;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
@@ -8,9 +7,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.supercsv.io.CsvListReader;
 import org.supercsv.io.CsvListWriter;
@@ -32,6 +34,15 @@ public class CalculateComemes {
 	@Parameter(names = "-c", description = "Number of memes to consider (from top of meme file)")
 	private int count = 100;
 
+	@Parameter(names = "-pth", description = "Threshold on phi coefficient (only write pairs with at least this value; must be positive)")
+	private Double phiThreshold;
+
+	@Parameter(names = "-k", description = "Only write the pairs that are among the k best for one of the two memes (only pairs that stick together at least once are considered)")
+	private int topK = 0;
+
+	@Parameter(names = "-threads", description = "Number of threads for calculating comeme scores")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	public static final void main(String[] args) {
 		CalculateComemes obj = new CalculateComemes();
 		JCommander jc = new JCommander(obj);
@@ -46,25 +57,44 @@ public class CalculateComemes {
 			jc.usage();
 			System.exit(1);
 		}
+		if (obj.phiThreshold != null && obj.phiThreshold <= 0) {
+			// Pairs that never stick together (with phi of zero or less) are not considered:
+			System.err.println("ERROR: Phi threshold must be positive");
+			jc.usage();
+			System.exit(1);
+		}
 		obj.inputFile = new File(obj.parameters.get(0));
 		obj.run();
 	}
 
-	private int grams = 1;
+	private static final int MATRIX_BLOCK_CELLS = 4 * 1024 * 1024;
+	private static final int PAIR_BLOCK_ROWS = 4096;
+	private static final int ROWS_PER_TASK = 16;
 
-	private Map<String,Integer> memes;
-	private Map<String,HashMap<String,Integer>> co;
-	private Map<String,Integer> mst;
+	private TermIndex termIndex;
+	private List<String> memes;
+	private List<Integer> memeRows;
+	private int[] nodeMemes;
+	private int[] mst;
+	// Numbers of documents in which both memes of a pair stick, with keys from getPairKey:
+	private LongIntMap co;
 	private int nxx;
 
+	private int[] citedStamps;
+	private int[] stickingStamps;
+	private int stamp;
+	private int[] sticking;
+
 	private void run() {
-		memes = new HashMap<String,Integer>();
-		co = new HashMap<String,HashMap<String,Integer>>();
-		mst = new HashMap<String,Integer>();
+		termIndex = new TermIndex();
+		memes = new ArrayList<String>();
+		memeRows = new ArrayList<Integer>();
+		co = new LongIntMap();
 		nxx = 0;
 
 		System.out.println("Reading " + count + " memes from " + memeFileName);
 		try {
+			Map<String,Integer> memeIds = new HashMap<String,Integer>();
 			CsvListReader reader = new CsvListReader(new FileReader(memeFileName), MemeUtils.getCsvPreference());
 			List<String> row;
 			int c = -1;
@@ -73,9 +103,13 @@ public class CalculateComemes {
 				if (c == 0) continue;
 				if (c > count) break;
 				String meme = row.get(1);
-				int l = meme.trim().split("\\s+").length;
-				if (l > grams) grams = l;
-				memes.put(meme, c);
+				if (memeIds.containsKey(meme)) {
+					memeRows.set(memeIds.get(meme), c);
+				} else {
+					memeIds.put(meme, memes.size());
+					memes.add(meme);
+					memeRows.add(c);
+				}
 			}
 			reader.close();
 		} catch (IOException ex) {
@@ -83,42 +117,59 @@ public class CalculateComemes {
 			System.exit(1);
 		}
 
-		for (String meme1 : memes.keySet()) {
-			co.put(meme1, new HashMap<String,Integer>());
-			mst.put(meme1, 0);
-			for (String meme2 : memes.keySet()) {
-				co.get(meme1).put(meme2, 0);
-			}
+		int memeCount = memes.size();
+		int[] memeNodes = new int[memeCount];
+		for (int i = 0 ; i < memeCount ; i++) {
+			memeNodes[i] = termIndex.addTerm(memes.get(i));
 		}
+		nodeMemes = new int[termIndex.size()];
+		Arrays.fill(nodeMemes, -1);
+		for (int i = 0 ; i < memeCount ; i++) {
+			// Memes that are not in normalized form (e.g. with double spaces) never occur in texts:
+			if (!termIndex.getTerm(memeNodes[i]).equals(memes.get(i))) continue;
+			nodeMemes[memeNodes[i]] = i;
+		}
+		mst = new int[memeCount];
+		citedStamps = new int[memeCount];
+		stickingStamps = new int[memeCount];
+		stamp = 0;
+		sticking = new int[memeCount];
 
 		int errors = 0;
 		try {
 			System.out.println("Counting memes...");
-			BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-			String line;
-			while ((line = reader.readLine()) != null) {
-				DataEntry d = new DataEntry(line);
+			TermMatcher matcher = termIndex.getMatcher();
+			DataEntryReader reader = DataEntryReader.open(inputFile);
+			DataEntry d;
+			while ((d = reader.read()) != null) {
 				nxx = nxx + 1;
-				Map<String,Boolean> citingTerms = getFilteredTerms(d.getText());
-				Map<String,Boolean> citedTerms = new HashMap<String,Boolean>();
+				stamp++;
 				for (String s : d.getCitedText()) {
-					collectFilteredTerms(s, citedTerms);
+					int state = TermMatcher.ROOT;
+					for (int token : getTokens(s)) {
+						state = matcher.next(state, token);
+						for (int node = matcher.getTerm(state) ; node != TermMatcher.NONE ; node = matcher.getNextTerm(node)) {
+							if (nodeMemes[node] >= 0) citedStamps[nodeMemes[node]] = stamp;
+						}
+					}
 				}
-				for (String meme1 : memes.keySet()) {
-					boolean meme1Stick = false;
-					if (citedTerms.containsKey(meme1) && citingTerms.containsKey(meme1)) {
-						mst.put(meme1, mst.get(meme1) + 1);
-						meme1Stick = true;
+				// Only the memes that stick in this document are involved in pair updates:
+				int k = 0;
+				int state = TermMatcher.ROOT;
+				for (int token : getTokens(d.getText())) {
+					state = matcher.next(state, token);
+					for (int node = matcher.getTerm(state) ; node != TermMatcher.NONE ; node = matcher.getNextTerm(node)) {
+						int m = nodeMemes[node];
+						if (m < 0 || citedStamps[m] != stamp || stickingStamps[m] == stamp) continue;
+						stickingStamps[m] = stamp;
+						mst[m]++;
+						sticking[k++] = m;
 					}
-					for (String meme2 : citedTerms.keySet()) {
-						if (meme1.compareTo(meme2) >= 0) continue;
-						boolean meme2Stick = false;
-						if (citedTerms.containsKey(meme2) && citingTerms.containsKey(meme2)) {
-							meme2Stick = true;
-						}
-						if (meme1Stick && meme2Stick) {
-							co.get(meme1).put(meme2, co.get(meme1).get(meme2) + 1);
-						}
+				}
+				Arrays.sort(sticking, 0, k);
+				for (int i = 0 ; i < k ; i++) {
+					for (int j = i + 1 ; j < k ; j++) {
+						co.increment(getPairKey(sticking[i], sticking[j]), 1);
 					}
 				}
 			}
@@ -129,100 +180,248 @@ public class CalculateComemes {
 		}
 		System.out.println("Number of errors: " + errors);
 		System.out.println("Calculating comeme scores and writing CSV file...");
+		ForkJoinPool pool = new ForkJoinPool(threads);
 		try {
-			Writer w = new BufferedWriter(new FileWriter(getOutputFile(inputFile, "csv")));
-			CsvListWriter csvWriter = new CsvListWriter(w, MemeUtils.getCsvPreference());
-			Writer gmlWriter = new BufferedWriter(new FileWriter(getOutputFile(inputFile, "gml")));
-			gmlWriter.write("graph [\n");
-			gmlWriter.write("directed 0\n");
-			for (String meme : memes.keySet()) {
-				gmlWriter.write("node [ id " + memes.get(meme) + " label \"" + meme.replaceAll("\"", "\\\"") + "\" ]\n");
+			if (phiThreshold == null && topK == 0) {
+				writeMatrix(pool);
+			} else {
+				writePairs(pool);
 			}
-			for (String meme1 : memes.keySet()) {
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			System.exit(1);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	// Writes the full matrix (CSV) and all pairs (GML), calculating blocks of rows in parallel:
+	private void writeMatrix(ForkJoinPool pool) throws IOException {
+		final int memeCount = memes.size();
+		Writer w = new BufferedWriter(new FileWriter(getOutputFile(inputFile, "csv")));
+		CsvListWriter csvWriter = new CsvListWriter(w, MemeUtils.getCsvPreference());
+		Writer gmlWriter = new BufferedWriter(new FileWriter(getOutputFile(inputFile, "gml")));
+		writeGmlNodes(gmlWriter);
+		int blockSize = Math.max(1, MATRIX_BLOCK_CELLS / Math.max(1, memeCount));
+		final double[][] values = new double[Math.min(blockSize, memeCount)][];
+		for (int blockStart = 0 ; blockStart < memeCount ; blockStart += blockSize) {
+			final int b = blockStart;
+			int blockEnd = Math.min(blockStart + blockSize, memeCount);
+			pool.invoke(new RowTask(blockStart, blockEnd, new RowProcessor() {
+				@Override
+				public void process(int m1) {
+					double[] v = new double[memeCount];
+					for (int m2 = 0 ; m2 < memeCount ; m2++) {
+						if (m1 != m2) v[m2] = getPhi(m1, m2);
+					}
+					values[m1 - b] = v;
+				}
+			}));
+			for (int m1 = blockStart ; m1 < blockEnd ; m1++) {
+				double[] v = values[m1 - blockStart];
 				Object[] row = new Object[count+1];
-				row[0] = meme1;
-				int i = 0;
-				for (String meme2 : memes.keySet()) {
-					i = i + 1;
-					if (meme1.equals(meme2)) {
-						row[i] = 1;
+				row[0] = memes.get(m1);
+				for (int m2 = 0 ; m2 < memeCount ; m2++) {
+					if (m1 == m2) {
+						row[m2+1] = 1;
 					} else {
-						int n11 = getValue(co, meme1, meme2);
-						int n1x = mst.get(meme1);
-						int n0x = nxx - n1x;
-						int nx1 = mst.get(meme2);
-						int nx0 = nxx - nx1;
-						int n10 = n1x - n11;
-						int n01 = nx1 - n11;
-						int n00 = nxx - n11 - n10 - n01;
-						double v = 0;
-						//v = (double) n11 / ( n01 + n10 + n11 );
-						// Phi coefficient:
-						double np = (double) n1x * (double) n0x * (double) nx1 * (double) nx0;
-						if (np != 0) {
-							v = ( ((double) n11 * (double) n00) - ((double) n10 * (double) n01) ) / Math.sqrt(np);
-						}
-						row[i] = v;
-						if (meme1.compareTo(meme2) < 0) {
-							gmlWriter.write("edge [ source " + memes.get(meme1) +
-									" target " + memes.get(meme2) +
-									" value " + MemeUtils.formatNumber(v) + " ]\n");
-						}
+						row[m2+1] = v[m2];
+						if (m1 < m2) writeGmlEdge(gmlWriter, m1, m2, v[m2]);
 					}
 				}
 				csvWriter.write(row);
+				values[m1 - blockStart] = null;
 			}
-			gmlWriter.write("]\n");
-			csvWriter.close();
-			gmlWriter.close();
-		} catch (IOException ex) {
-			ex.printStackTrace();
-			System.exit(1);
 		}
+		gmlWriter.write("]\n");
+		csvWriter.close();
+		gmlWriter.close();
 	}
 
-	private Map<String,Boolean> getFilteredTerms(String text) {
-		Map<String,Boolean> terms = new HashMap<String,Boolean>();
-		collectFilteredTerms(text, terms);
-		return terms;
-	}
+	// Writes only the pairs that pass the phi threshold and the top-k filter, as a list of pairs (CSV)
+	// and a sparse graph (GML). Pairs that never stick together have a phi coefficient of zero or
+	// less and are not considered.
+	private void writePairs(ForkJoinPool pool) throws IOException {
+		final int memeCount = memes.size();
+		// Adjacency lists of the memes that stick together at least once:
+		final int[] offsets = new int[memeCount + 1];
+		for (int slot = co.nextSlot(-1) ; slot != -1 ; slot = co.nextSlot(slot)) {
+			long key = co.getKeyAt(slot);
+			offsets[(int) (key >>> 32) + 1]++;
+			offsets[(int) key + 1]++;
+		}
+		for (int m = 0 ; m < memeCount ; m++) {
+			offsets[m + 1] += offsets[m];
+		}
+		final int[] neighbors = new int[offsets[memeCount]];
+		int[] fill = Arrays.copyOf(offsets, memeCount);
+		for (int slot = co.nextSlot(-1) ; slot != -1 ; slot = co.nextSlot(slot)) {
+			long key = co.getKeyAt(slot);
+			int m1 = (int) (key >>> 32);
+			int m2 = (int) key;
+			neighbors[fill[m1]++] = m2;
+			neighbors[fill[m2]++] = m1;
+		}
+		fill = null;
+		System.out.println("Number of pairs that stick together: " + co.size());
 
-	private void collectFilteredTerms(String text, Map<String,Boolean> terms) {
-		String[] onegrams = text.trim().split("\\s+");
-		List<String> previous = new ArrayList<String>();
-		for (String t : onegrams) {
-			if (memes.containsKey(t)) {
-				terms.put(t, true);
+		// Minimum value to be among the k best pairs of each meme:
+		final double[] topKValues = new double[memeCount];
+		pool.invoke(new RowTask(0, memeCount, new RowProcessor() {
+			@Override
+			public void process(int m1) {
+				Arrays.sort(neighbors, offsets[m1], offsets[m1 + 1]);
+				int n = offsets[m1 + 1] - offsets[m1];
+				if (topK == 0 || n < topK) {
+					topKValues[m1] = Double.NEGATIVE_INFINITY;
+					return;
+				}
+				double[] v = new double[n];
+				for (int i = 0 ; i < n ; i++) {
+					v[i] = getPhi(m1, neighbors[offsets[m1] + i]);
+				}
+				Arrays.sort(v);
+				topKValues[m1] = v[n - topK];
 			}
-			for (int x = 1; x < grams; x++) {
-				if (previous.size() > x-1) {
-					String term = t;
-					for (int y = 0; y < x; y++) {
-						term = previous.get(y) + " " + term;
-					}
-					if (memes.containsKey(term)) {
-						terms.put(term, true);
+		}));
+
+		Writer w = new BufferedWriter(new FileWriter(getOutputFile(inputFile, "csv")));
+		CsvListWriter csvWriter = new CsvListWriter(w, MemeUtils.getCsvPreference());
+		csvWriter.write("MEME1", "MEME2", "PHI");
+		Writer gmlWriter = new BufferedWriter(new FileWriter(getOutputFile(inputFile, "gml")));
+		writeGmlNodes(gmlWriter);
+		final double threshold = (phiThreshold == null ? Double.NEGATIVE_INFINITY : phiThreshold);
+		final double[][] values = new double[Math.min(PAIR_BLOCK_ROWS, memeCount)][];
+		int pairCount = 0;
+		for (int blockStart = 0 ; blockStart < memeCount ; blockStart += PAIR_BLOCK_ROWS) {
+			final int b = blockStart;
+			int blockEnd = Math.min(blockStart + PAIR_BLOCK_ROWS, memeCount);
+			pool.invoke(new RowTask(blockStart, blockEnd, new RowProcessor() {
+				@Override
+				public void process(int m1) {
+					double[] v = new double[offsets[m1 + 1] - offsets[m1]];
+					for (int i = 0 ; i < v.length ; i++) {
+						int m2 = neighbors[offsets[m1] + i];
+						if (m2 < m1) continue;
+						v[i] = getPhi(m1, m2);
 					}
+					values[m1 - b] = v;
 				}
+			}));
+			for (int m1 = blockStart ; m1 < blockEnd ; m1++) {
+				double[] v = values[m1 - blockStart];
+				for (int i = 0 ; i < v.length ; i++) {
+					int m2 = neighbors[offsets[m1] + i];
+					if (m2 < m1) continue;
+					if (v[i] < threshold) continue;
+					if (v[i] < topKValues[m1] && v[i] < topKValues[m2]) continue;
+					csvWriter.write(memes.get(m1), memes.get(m2), v[i] + "");
+					writeGmlEdge(gmlWriter, m1, m2, v[i]);
+					pairCount++;
+				}
+				values[m1 - blockStart] = null;
 			}
-			previous.add(0, t);
-			while (previous.size() > grams-1) {
-				previous.remove(previous.size()-1);
-			}
 		}
+		gmlWriter.write("]\n");
+		csvWriter.close();
+		gmlWriter.close();
+		System.out.println("Number of pairs written: " + pairCount);
+	}
+
+	private void writeGmlNodes(Writer gmlWriter) throws IOException {
+		gmlWriter.write("graph [\n");
+		gmlWriter.write("directed 0\n");
+		for (int m = 0 ; m < memes.size() ; m++) {
+			gmlWriter.write("node [ id " + memeRows.get(m) + " label \"" + memes.get(m).replaceAll("\"", "\\\"") + "\" ]\n");
+		}
+	}
+
+	private void writeGmlEdge(Writer gmlWriter, int m1, int m2, double v) throws IOException {
+		gmlWriter.write("edge [ source " + memeRows.get(m1) +
+				" target " + memeRows.get(m2) +
+				" value " + MemeUtils.formatNumber(v) + " ]\n");
+	}
+
+	private double getPhi(int m1, int m2) {
+		int n11 = getValue(m1, m2);
+		int n1x = mst[m1];
+		int n0x = nxx - n1x;
+		int nx1 = mst[m2];
+		int nx0 = nxx - nx1;
+		int n10 = n1x - n11;
+		int n01 = nx1 - n11;
+		int n00 = nxx - n11 - n10 - n01;
+		double v = 0;
+		//v = (double) n11 / ( n01 + n10 + n11 );
+		// Phi coefficient:
+		double np = (double) n1x * (double) n0x * (double) nx1 * (double) nx0;
+		if (np != 0) {
+			v = ( ((double) n11 * (double) n00) - ((double) n10 * (double) n01) ) / Math.sqrt(np);
+		}
+		return v;
+	}
+
+	private int[] getTokens(String text) {
+		String[] onegrams = text.trim().split("\\s+");
+		int[] tokens = new int[onegrams.length];
+		for (int i = 0 ; i < onegrams.length ; i++) {
+			tokens[i] = termIndex.getDictionary().get(onegrams[i]);
+		}
+		return tokens;
 	}
 
 	private File getOutputFile(File inputFile, String ext) {
 		String basename = inputFile.getName().replaceAll("\\..*$", "");
-		String filename = "files/cm-" + basename + "-c" + count + "." + ext;
+		String filename = "files/cm-" + basename + "-c" + count;
+		if (phiThreshold != null) filename += "-pth" + phiThreshold;
+		if (topK > 0) filename += "-k" + topK;
+		filename += "." + ext;
 		return new File(filename);
 	}
 
-	private int getValue(Map<String,HashMap<String,Integer>> map, String meme1, String meme2) {
-		if (meme1.compareTo(meme2) < 0) {
-			return map.get(meme1).get(meme2);
+	private int getValue(int meme1, int meme2) {
+		if (meme1 < meme2) {
+			return co.get(getPairKey(meme1, meme2), 0);
 		}
-		return map.get(meme2).get(meme1);
+		return co.get(getPairKey(meme2, meme1), 0);
+	}
+
+	private static long getPairKey(int meme1, int meme2) {
+		return ((long) meme1 << 32) | meme2;
+	}
+
+	private interface RowProcessor {
+
+		public void process(int meme);
+
+	}
+
+	// Processes a range of rows, splitting it up for the fork/join pool:
+	private static class RowTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int start, end;
+		private RowProcessor processor;
+
+		public RowTask(int start, int end, RowProcessor processor) {
+			this.start = start;
+			this.end = end;
+			this.processor = processor;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= ROWS_PER_TASK) {
+				for (int m = start ; m < end ; m++) {
+					processor.process(m);
+				}
+			} else {
+				int mid = (start + end) / 2;
+				invokeAll(new RowTask(start, mid, processor), new RowTask(mid, end, processor));
+			}
+		}
+
 	}
 
 }
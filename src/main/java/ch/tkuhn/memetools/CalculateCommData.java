@@ -63,16 +63,18 @@ public class CalculateCommData {
 		obj.run();
 	}
 
-	private Map<String,String> communityMap;
-	private List<String> communitySequence;
-	private Map<String,Integer> commFreq;
+	private CommunityMap communityMap;
+	private int[] commFreq;
+	private long[] timeSum;
 	private List<String> terms;
-	private Map<String,Long> timeSum;
+	// Duplicate terms are counted together:
+	private Map<String,Integer> termIds;
+	private int[] termPositionIds;
 
-	private Map<String,Integer> termFreq;
-	private Map<String,Map<String,Integer>> termCommFreq;
+	private int[] termFreq;
+	private int[][] termCommFreq;
 
-	private Map<String,List<Pair<String,Float>>> commTopMemes;
+	private List<List<Pair<String,Float>>> commTopMemes;
 
 	public void run() {
 		init();
@@ -94,42 +96,20 @@ public class CalculateCommData {
 		log("==========");
 
 		terms = new ArrayList<String>();
-		communityMap = new HashMap<String,String>();
-		communitySequence = new ArrayList<String>();
-		commFreq = new HashMap<String,Integer>();
-		timeSum = new HashMap<String,Long>();
-
-		termFreq = new HashMap<String,Integer>();
-		termCommFreq = new HashMap<String,Map<String,Integer>>();
-
-		commTopMemes = new HashMap<String,List<Pair<String,Float>>>();
+		termIds = new HashMap<String,Integer>();
 	}
 
 	private void readCommunityMap() throws IOException {
 		log("Reading communities from " + communityMapFile + " ...");
-		BufferedReader reader = new BufferedReader(new FileReader(communityMapFile));
-		String line;
-		while ((line = reader.readLine()) != null) {
-			String[] parts = line.split(" ");
-			String c = parts[1];
-			communityMap.put(parts[0], c);
-			if (!communitySequence.contains(c)) {
-				communitySequence.add(c);
-			}
-			commFreq.put(c, 0);
-			timeSum.put(c, 0l);
-			commTopMemes.put(c, new ArrayList<Pair<String,Float>>());
+		communityMap = new CommunityMap(communityMapFile);
+		int communityCount = communityMap.getCommunityCount();
+		commFreq = new int[communityCount];
+		timeSum = new long[communityCount];
+		commTopMemes = new ArrayList<List<Pair<String,Float>>>(communityCount);
+		for (int c = 0 ; c < communityCount ; c++) {
+			commTopMemes.add(new ArrayList<Pair<String,Float>>());
 		}
-		reader.close();
-		Collections.sort(communitySequence, new Comparator<String>() {
-			@Override
-			public int compare(String o1, String o2) {
-				Integer i1 = Integer.parseInt(o1);
-				Integer i2 = Integer.parseInt(o2);
-				return i1.compareTo(i2);
-			}
-		});
-		log("Number of communities: " + communitySequence.size());
+		log("Number of communities: " + communityCount);
 	}
 
 	private void readTerms() throws IOException {
@@ -139,17 +119,28 @@ public class CalculateCommData {
 		} else {
 			readTermsTxt();
 		}
+		termPositionIds = new int[terms.size()];
+		for (int i = 0 ; i < terms.size() ; i++) {
+			termPositionIds[i] = termIds.get(terms.get(i));
+		}
+		termFreq = new int[termIds.size()];
+		termCommFreq = new int[termIds.size()][];
 		log("Number of terms: " + terms.size());
 	}
 
+	private void addTerm(String term) {
+		terms.add(term);
+		if (!termIds.containsKey(term)) {
+			termIds.put(term, termIds.size());
+		}
+	}
+
 	private void readTermsTxt() throws IOException {
 		BufferedReader reader = new BufferedReader(new FileReader(termsFile));
 		String line;
 		while ((line = reader.readLine()) != null) {
 			String term = MemeUtils.normalize(line);
-			terms.add(term);
-			termFreq.put(term, 0);
-			termCommFreq.put(term, new HashMap<String,Integer>());
+			addTerm(term);
 			if (termCount >= 0 && terms.size() >= termCount) {
 				break;
 			}
@@ -170,9 +161,7 @@ public class CalculateCommData {
 		List<String> line;
 		while ((line = csvReader.read()) != null) {
 			String term = MemeUtils.normalize(line.get(col));
-			terms.add(term);
-			termFreq.put(term, 0);
-			termCommFreq.put(term, new HashMap<String,Integer>());
+			addTerm(term);
 			if (termCount >= 0 && terms.size() >= termCount) {
 				break;
 			}
@@ -182,27 +171,24 @@ public class CalculateCommData {
 
 	private void readData() throws IOException {
 		log("Processing data from " + inputFile + "...");
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-		String inputLine;
+		TermListMatcher termMatcher = new TermListMatcher(terms);
+		DataEntryReader reader = DataEntryReader.open(inputFile);
 		int entryCount = 0;
-		while ((inputLine = reader.readLine()) != null) {
+		DataEntry d;
+		while ((d = reader.read()) != null) {
 			logProgress(entryCount);
 			entryCount++;
-			DataEntry d = new DataEntry(inputLine);
-			String c = communityMap.get(d.getId());
-			if (c == null) continue;
-			commFreq.put(c, commFreq.get(c) + 1);
-			timeSum.put(c, timeSum.get(c) + entryCount);
-			String text = " " + d.getText() + " ";
-			for (String term : terms) {
-				if (text.contains(" " + term + " ")) {
-					termFreq.put(term, termFreq.get(term) + 1);
-					if (termCommFreq.get(term).containsKey(c)) {
-						termCommFreq.get(term).put(c, termCommFreq.get(term).get(c) + 1);
-					} else {
-						termCommFreq.get(term).put(c, 1);
-					}
+			int c = communityMap.getCommunity(d.getId());
+			if (c == CommunityMap.NONE) continue;
+			commFreq[c]++;
+			timeSum[c] += entryCount;
+			for (int i : termMatcher.findTerms(d.getText())) {
+				int t = termPositionIds[i];
+				termFreq[t]++;
+				if (termCommFreq[t] == null) {
+					termCommFreq[t] = new int[commFreq.length];
 				}
+				termCommFreq[t][c]++;
 			}
 			
 		}
@@ -210,19 +196,18 @@ public class CalculateCommData {
 	}
 
 	private void analyzeData() {
-		for (String term : terms) {
-			int tf = termFreq.get(term);
-			for (String comm : communitySequence) {
-				int cf = commFreq.get(comm);
-				int tcf = 0;
-				if (termCommFreq.get(term).containsKey(comm)) {
-					tcf = termCommFreq.get(term).get(comm);
-				}
+		for (int i = 0 ; i < terms.size() ; i++) {
+			int t = termPositionIds[i];
+			int tf = termFreq[t];
+			if (termCommFreq[t] == null) continue;
+			for (int comm = 0 ; comm < commFreq.length ; comm++) {
+				int cf = commFreq[comm];
+				int tcf = termCommFreq[t][comm];
 				if (tf > 0 && cf > 0 && tcf > 0) {
 					float prec = (float) tcf / tf;
 					float rec = (float) tcf / cf;
 					float score = 2 * prec * rec / (prec + rec);
-					commTopMemes.get(comm).add(Pair.of(term, score));
+					commTopMemes.get(comm).add(Pair.of(terms.get(i), score));
 				}
 			}
 		}
@@ -237,10 +222,10 @@ public class CalculateCommData {
 
 		csvWriter.write("COMM-ID", "TIME-AVG", "MEME1", "FSCORE1", "MEME2", "FSCORE2", "...");
 
-		for (String comm : communitySequence) {
+		for (int comm = 0 ; comm < commFreq.length ; comm++) {
 			List<Object> row = new ArrayList<Object>();
-			row.add(comm);
-			row.add(timeSum.get(comm) / commFreq.get(comm));
+			row.add(communityMap.getCommunityId(comm));
+			row.add(timeSum[comm] / commFreq[comm]);
 			List<Pair<String,Float>> memes = new ArrayList<Pair<String,Float>>(commTopMemes.get(comm));
 			Collections.sort(memes, new Comparator<Pair<String,Float>>() {
 				@Override
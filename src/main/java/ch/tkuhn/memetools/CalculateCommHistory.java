@@ -1,17 +1,12 @@
 package ch.tkuhn.memetools;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import org.supercsv.io.CsvListWriter;
 
@@ -74,8 +69,8 @@ public class CalculateCommHistory {
 	}
 
 	private int[][] count;
-	private Map<String,String> communityMap;
-	private List<String> communitySequence;
+	private int[] total;
+	private CommunityMap communityMap;
 
 	private CsvListWriter csvWriter;
 
@@ -96,38 +91,18 @@ public class CalculateCommHistory {
 		log("==========");
 
 		stepsPerWindow = windowSize / stepSize;
-		communityMap = new HashMap<String,String>();
-		communitySequence = new ArrayList<String>();
 	}
 
 	private void readCommunityMap() throws IOException {
 		log("Reading communities from " + communityMapFile + " ...");
-		communitySequence.add("-1");
-		BufferedReader reader = new BufferedReader(new FileReader(communityMapFile));
-		String line;
-		while ((line = reader.readLine()) != null) {
-			String[] parts = line.split(" ");
-			String c = parts[1];
-			communityMap.put(parts[0], c);
-			if (!communitySequence.contains(c)) {
-				communitySequence.add(c);
-			}
-		}
-		reader.close();
-		Collections.sort(communitySequence, new Comparator<String>() {
-			@Override
-			public int compare(String o1, String o2) {
-				Integer i1 = Integer.parseInt(o1);
-				Integer i2 = Integer.parseInt(o2);
-				return i1.compareTo(i2);
-			}
-		});
-		log("Number of communities: " + communitySequence.size());
+		// Documents without community are counted for community -1:
+		communityMap = new CommunityMap(communityMapFile, "-1");
+		log("Number of communities: " + communityMap.getCommunityCount());
 	}
 
 	private void processAndWriteData() throws IOException {
 		log("Processing data from " + inputFile + " and writing result to output files...");
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		DataEntryReader reader = DataEntryReader.open(inputFile);
 		if (outputFile == null) {
 			outputFile = new File(MemeUtils.getOutputDataDir(), getOutputFileName() + ".csv");
 		}
@@ -137,22 +112,22 @@ public class CalculateCommHistory {
 		List<String> outputHeader = new ArrayList<String>();
 		outputHeader.add("DATE");
 
-		for (String community : communitySequence) {
+		for (String community : communityMap.getCommunityIds()) {
 			outputHeader.add(community);
 		}
 		csvWriter.write(outputHeader);
 
 		int entryCount = 0;
 		int bin = 0;
-		count = new int[stepsPerWindow][communitySequence.size()];
-		String inputLine;
-		while ((inputLine = reader.readLine()) != null) {
+		int communityCount = communityMap.getCommunityCount();
+		count = new int[stepsPerWindow][communityCount];
+		total = new int[communityCount];
+		DataEntry d;
+		while ((d = reader.read()) != null) {
 			logProgress(entryCount);
-			DataEntry d = new DataEntry(inputLine);
-			String c = communityMap.get(d.getId());
-			if (c == null) c = "-1";
-			int i = communitySequence.indexOf(c);
+			int i = communityMap.getCommunity(d.getId());
 			count[bin][i]++;
+			total[i]++;
 			entryCount++;
 			bin = (entryCount % windowSize) / stepSize;
 			if (entryCount % stepSize == 0) {
@@ -162,7 +137,10 @@ public class CalculateCommHistory {
 					writeLine(d.getDate());
 				}
 				logDetail("Start new bin " + bin + " (at entry " + entryCount + ")");
-				count[bin] = new int[communitySequence.size()];
+				for (int c = 0 ; c < communityCount ; c++) {
+					total[c] -= count[bin][c];
+				}
+				Arrays.fill(count[bin], 0);
 			}
 		}
 		log(((entryCount - windowSize) / stepSize + 1) + " output entries written");
@@ -174,12 +152,8 @@ public class CalculateCommHistory {
 	private void writeLine(String date) throws IOException {
 		List<String> outputLine = new ArrayList<String>();
 		outputLine.add(date);
-		for (int c = 0 ; c < communitySequence.size() ; c++) {
-			int sum = 0;
-			for (int[] x : count) {
-				sum += x[c];
-			}
-			outputLine.add(sum + "");
+		for (int c = 0 ; c < total.length ; c++) {
+			outputLine.add(total[c] + "");
 		}
 		csvWriter.write(outputLine);
 	}
@@ -130,13 +130,12 @@ public class CalculateFMatrices {
 
 	private void processData() throws IOException {
 		log("Reading input file: " + inputFile);
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		DataEntryReader reader = DataEntryReader.open(inputFile);
 		int progress = 0;
-		String line;
-		while ((line = reader.readLine()) != null) {
+		DataEntry d;
+		while ((d = reader.read()) != null) {
 			logProgress(progress);
 			progress++;
-			DataEntry d = new DataEntry(line);
 			String articleText = d.getText();
 			String[] articleTokens = articleText.split(" ");
 			// TODO do something with citing article tokens
@@ -80,7 +80,7 @@ public class CalculateHistory {
 		obj.run();
 	}
 
-	private MemeScorer[] ms;
+	private WindowedMemeScorer ms;
 	private List<String> terms;
 
 	private List<CsvListWriter> csvWriters;
@@ -102,11 +102,7 @@ public class CalculateHistory {
 		log("==========");
 
 		stepsPerWindow = windowSize / stepSize;
-		ms = new MemeScorer[stepsPerWindow];
-		ms[0] = new MemeScorer(MemeScorer.GIVEN_TERMLIST_MODE);
-		for (int i = 1 ; i < stepsPerWindow ; i++) {
-			ms[i] = new MemeScorer(ms[0], MemeScorer.GIVEN_TERMLIST_MODE);
-		}
+		ms = new WindowedMemeScorer(MemeScorer.GIVEN_TERMLIST_MODE, stepsPerWindow);
 		terms = new ArrayList<String>();
 
 		csvWriters = new ArrayList<CsvListWriter>();
@@ -127,7 +123,7 @@ public class CalculateHistory {
 		String line;
 		while ((line = reader.readLine()) != null) {
 			String term = MemeUtils.normalize(line);
-			ms[0].addTerm(term);
+			ms.addTerm(term);
 			terms.add(term);
 			if (termCount >= 0 && terms.size() >= termCount) {
 				break;
@@ -149,7 +145,7 @@ public class CalculateHistory {
 		List<String> line;
 		while ((line = csvReader.read()) != null) {
 			String term = MemeUtils.normalize(line.get(col));
-			ms[0].addTerm(term);
+			ms.addTerm(term);
 			terms.add(term);
 			if (termCount >= 0 && terms.size() >= termCount) {
 				break;
@@ -160,7 +156,7 @@ public class CalculateHistory {
 
 	private void processAndWriteData() throws IOException {
 		log("Processing data from " + inputFile + " and writing result to output files...");
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		DataEntryReader reader = DataEntryReader.open(inputFile);
 		for (String metric : metrics.split(",")) {
 			File outputFile = new File(MemeUtils.getOutputDataDir(), getOutputFileName(metric) + ".csv");
 			BufferedWriter w = new BufferedWriter(new FileWriter(outputFile));
@@ -175,22 +171,19 @@ public class CalculateHistory {
 		}
 
 		int entryCount = 0;
-		int bin = 0;
-		String inputLine;
-		while ((inputLine = reader.readLine()) != null) {
+		DataEntry d;
+		while ((d = reader.read()) != null) {
 			logProgress(entryCount);
-			DataEntry d = new DataEntry(inputLine);
-			ms[bin].recordTerms(d);
+			ms.recordTerms(d);
 			entryCount++;
-			bin = (entryCount % windowSize) / stepSize;
 			if (entryCount % stepSize == 0) {
 				// Current bin is full
+				ms.completeBin();
 				if (entryCount >= windowSize) {
 					// All bins are full
 					writeLine(d.getDate());
 				}
-				logDetail("Start new bin " + bin + " (at entry " + entryCount + ")");
-				ms[bin].clear();
+				logDetail("Start new bin " + ms.getCurrentBin() + " (at entry " + entryCount + ")");
 			}
 		}
 		log(((entryCount - windowSize) / stepSize + 1) + " output entries written");
@@ -210,15 +203,8 @@ public class CalculateHistory {
 			outputLines.add(outputLine);
 		}
 		for (String term : terms) {
-			int mmVal = 0, mVal = 0, xmVal = 0, xVal = 0, fVal = 0;
-			for (MemeScorer m : ms) {
-				mmVal += m.getMM(term);
-				mVal += m.getM(term);
-				xmVal += m.getXM(term);
-				xVal += m.getX(term);
-				fVal += m.getF(term);
-			}
-			double[] v = MemeScorer.calculateMemeScoreValues(mmVal, mVal, xmVal, xVal, fVal, delta);
+			int fVal = ms.getF(term);
+			double[] v = ms.calculateMemeScoreValues(term, delta);
 			for (int i = 0 ; i < metricsArray.length ; i++) {
 				String metric = metricsArray[i];
 				if (metric.equals("st")) {
@@ -9,8 +9,15 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.supercsv.io.CsvListReader;
 import org.supercsv.io.CsvListWriter;
@@ -47,6 +54,9 @@ public class CalculateMemeScores {
 	@Parameter(names = "-g", description = "Set gamma parameter and use modified meme score")
 	private Float gamma = null;
 
+	@Parameter(names = "-threads", description = "Number of threads for screening and counting terms")
+	private int threads = 1;
+
 	private File logFile;
 
 	public static final void main(String[] args) {
@@ -73,6 +83,8 @@ public class CalculateMemeScores {
 
 	private CsvListWriter paperMemesWriter;
 
+	private static final int BATCH_SIZE = 1000;
+
 	public CalculateMemeScores() {
 	}
 
@@ -89,8 +101,13 @@ public class CalculateMemeScores {
 				if (gamma != null) {
 					throw new RuntimeException("Gamma can only be set in append mode");
 				}
-				extractTerms();
-				countTerms();
+				if (threads > 1) {
+					extractTermsInParallel();
+					countTermsInParallel();
+				} else {
+					extractTerms();
+					countTerms();
+				}
 				writeTable();
 			}
 		} catch (Throwable th) {
@@ -117,13 +134,12 @@ public class CalculateMemeScores {
 
 	private void extractTerms() throws IOException {
 		log("Extracting terms from input file: " + inputFile);
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		DataEntryReader reader = DataEntryReader.open(inputFile);
 		int progress = 0;
-		String line;
-		while ((line = reader.readLine()) != null) {
+		DataEntry d;
+		while ((d = reader.read()) != null) {
 			progress++;
 			logProgress(progress);
-			DataEntry d = new DataEntry(line);
 			if (!considerYear(d.getYear())) continue;
 			Set<String> collectTerms = null;
 			if (paperMemesFile != null) collectTerms = new HashSet<String>();
@@ -154,13 +170,12 @@ public class CalculateMemeScores {
 		int errors = 0;
 		try {
 			log("Counting terms...");
-			BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+			DataEntryReader reader = DataEntryReader.open(inputFile);
 			int progress = 0;
-			String line;
-			while ((line = reader.readLine()) != null) {
+			DataEntry d;
+			while ((d = reader.read()) != null) {
 				progress++;
 				logProgress(progress);
-				DataEntry d = new DataEntry(line);
 				if (!considerYear(d.getYear())) continue;
 				ms.recordTerms(d);
 			}
@@ -173,6 +188,125 @@ public class CalculateMemeScores {
 		log("Number of errors: " + errors);
 	}
 
+	private void extractTermsInParallel() throws Exception {
+		log("Extracting terms from input file with " + threads + " threads: " + inputFile);
+		List<MemeScorer> shards = new ArrayList<MemeScorer>();
+		for (int i = 0 ; i < threads ; i++) {
+			shards.add(new MemeScorer(MemeScorer.FAST_SCREEN_MODE));
+		}
+		processInParallel(shards, true);
+		if (paperMemesWriter != null) paperMemesWriter.close();
+		// Merge in fixed order to get the same result independent of scheduling:
+		for (MemeScorer shard : shards) {
+			ms.merge(shard);
+		}
+		log("Number of unique terms with meme score > 0: " + ms.getMM().size());
+		ms.fixTerms();
+	}
+
+	private void countTermsInParallel() throws Exception {
+		log("Counting terms with " + threads + " threads...");
+		List<MemeScorer> shards = new ArrayList<MemeScorer>();
+		for (int i = 0 ; i < threads ; i++) {
+			shards.add(ms.createShard());
+		}
+		processInParallel(shards, false);
+		for (MemeScorer shard : shards) {
+			ms.merge(shard);
+		}
+		log("Total number of documents: " + ms.getT());
+	}
+
+	private void processInParallel(List<MemeScorer> shards, boolean screening) throws Exception {
+		BlockingQueue<MemeScorer> idleShards = new LinkedBlockingQueue<MemeScorer>(shards);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			// Results are processed in input order; the number of pending batches is limited:
+			LinkedList<Future<List<PaperMemes>>> pending = new LinkedList<Future<List<PaperMemes>>>();
+			// The counts do not depend on the order of the entries, but the paper memes table does:
+			boolean ordered = screening && paperMemesFile != null;
+			DataEntryReader reader = DataEntryReader.open(inputFile, MemeUtils.getDefaultReaderThreadCount(), ordered);
+			int progress = 0;
+			List<DataEntry> batch = new ArrayList<DataEntry>(BATCH_SIZE);
+			DataEntry d;
+			while ((d = reader.read()) != null) {
+				progress++;
+				logProgress(progress);
+				batch.add(d);
+				if (batch.size() == BATCH_SIZE) {
+					pending.add(executor.submit(new BatchProcessor(batch, idleShards, screening)));
+					batch = new ArrayList<DataEntry>(BATCH_SIZE);
+				}
+				if (pending.size() >= 2 * threads) {
+					writePaperMemesTable(pending.removeFirst().get());
+				}
+			}
+			reader.close();
+			pending.add(executor.submit(new BatchProcessor(batch, idleShards, screening)));
+			while (!pending.isEmpty()) {
+				writePaperMemesTable(pending.removeFirst().get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private class BatchProcessor implements Callable<List<PaperMemes>> {
+
+		private List<DataEntry> entries;
+		private BlockingQueue<MemeScorer> idleShards;
+		private boolean screening;
+
+		BatchProcessor(List<DataEntry> entries, BlockingQueue<MemeScorer> idleShards, boolean screening) {
+			this.entries = entries;
+			this.idleShards = idleShards;
+			this.screening = screening;
+		}
+
+		@Override
+		public List<PaperMemes> call() throws Exception {
+			List<PaperMemes> paperMemes = new ArrayList<PaperMemes>();
+			MemeScorer shard = idleShards.take();
+			try {
+				for (DataEntry d : entries) {
+					if (!considerYear(d.getYear())) continue;
+					if (screening) {
+						Set<String> collectTerms = null;
+						if (paperMemesFile != null) collectTerms = new HashSet<String>();
+						shard.screenTerms(d, collectTerms);
+						if (collectTerms != null) {
+							paperMemes.add(new PaperMemes(d, collectTerms));
+						}
+					} else {
+						shard.recordTerms(d);
+					}
+				}
+			} finally {
+				idleShards.add(shard);
+			}
+			return paperMemes;
+		}
+
+	}
+
+	private static class PaperMemes {
+
+		DataEntry entry;
+		Set<String> memes;
+
+		PaperMemes(DataEntry entry, Set<String> memes) {
+			this.entry = entry;
+			this.memes = memes;
+		}
+
+	}
+
+	private void writePaperMemesTable(List<PaperMemes> paperMemes) throws IOException {
+		for (PaperMemes p : paperMemes) {
+			writePaperMemesTable(p.entry, p.memes);
+		}
+	}
+
 	private void writeTable() throws IOException {
 		log("Calculating meme scores and writing CSV file...");
 		Writer w = new BufferedWriter(new FileWriter(outputFile));
@@ -12,9 +12,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.supercsv.io.CsvListReader;
@@ -71,14 +69,23 @@ public class CalculatePaperSuccess {
 	private int pubcount;
 	private MemeScorer ms;
 	private List<String> terms;
-	private BufferedReader reader;
-	private Map<String,Long> paperDates;
-	private Map<String,Integer> paperCitations;
-	private Map<String,String> cpyMapKeys;
-	private Map<String,Long> cpyLastDay;
-	private Map<String,Long> cpyPaperDays;
-	private Map<String,Integer> cpyPaperCount;
-	private Map<String,Integer> cpyCitationCount;
+	private DataEntryReader reader;
+	// Papers are identified by integer IDs:
+	private StringIntMap paperIds;
+	private long[] paperDates;
+	private int[] paperCitations;
+	// C/PY keys (journals and authors) of the papers, null for papers that are not yet processed:
+	private int[][] paperKeys;
+	// Journals and authors share the ID space of the C/PY keys:
+	private StringIntMap journalIds;
+	private StringIntMap authorIds;
+	private int keyCount;
+	private long[] cpyLastDay;
+	private long[] cpyPaperDays;
+	private int[] cpyPaperCount;
+	private int[] cpyCitationCount;
+	// Marks the authors of the current paper with the current publication count:
+	private int[] authorStamps;
 	private long firstDay;
 	private long lastDay;
 
@@ -108,13 +115,18 @@ public class CalculatePaperSuccess {
 
 		ms = new MemeScorer(MemeScorer.GIVEN_TERMLIST_MODE);
 		terms = new ArrayList<String>();
-		paperDates = new HashMap<String,Long>();
-		paperCitations = new HashMap<String,Integer>();
-		cpyMapKeys = new HashMap<String,String>();
-		cpyLastDay = new HashMap<String,Long>();
-		cpyPaperDays = new HashMap<String,Long>();
-		cpyPaperCount = new HashMap<String,Integer>();
-		cpyCitationCount = new HashMap<String,Integer>();
+		paperIds = new StringIntMap();
+		paperDates = new long[1024];
+		paperCitations = new int[1024];
+		paperKeys = new int[1024][];
+		journalIds = new StringIntMap();
+		authorIds = new StringIntMap();
+		keyCount = 0;
+		cpyLastDay = new long[1024];
+		cpyPaperDays = new long[1024];
+		cpyPaperCount = new int[1024];
+		cpyCitationCount = new int[1024];
+		authorStamps = new int[1024];
 		pubcount = 0;
 		firstDay = 0;       
 	}
@@ -167,30 +179,33 @@ public class CalculatePaperSuccess {
 			csvWriter = new CsvListWriter(w, MemeUtils.getCsvPreference());
 			csvWriter.write("ID", "JOURNAL-C/PY", "FIRSTAUTHOR-C/PY", "AUTHOR-MAX-C/PY", "SELFCIT-MAX-C/Y", "TIME-ABS", "TIME-REL", "TOP-MS", "TOP-MS-MEME");
 
-			reader = new BufferedReader(new FileReader(inputFile));
+			reader = DataEntryReader.open(inputFile);
 			int progress = 0;
-			String line;
-			while ((line = reader.readLine()) != null) {
+			DataEntry d;
+			while ((d = reader.read()) != null) {
 				progress++;
 				logProgress(progress);
-				DataEntry d = new DataEntry(line);
 
 				// Calculate C/PY values
 				long thisDay = getDayCount(d.getDate());
 				if (firstDay == 0) firstDay = thisDay;
 				pubcount++;
 				String doi = d.getId();
-				paperDates.put(doi, thisDay);
-				paperCitations.put(doi, 0);
-				List<String> authList = Arrays.asList(d.getAuthors().split(" "));
-				String journal = PrepareApsData.getJournalFromDoi(doi);
-				String journalKey = "J:" + journal;
-				double journalCpy = updateCpyData(journalKey, thisDay);
+				int paper = getPaperId(doi);
+				paperDates[paper] = thisDay;
+				paperCitations[paper] = 0;
+				String[] authList = d.getAuthors().split(" ");
+				// Journal key first, followed by the author keys:
+				int[] keys = new int[authList.length + 1];
+				keys[0] = getKeyId(journalIds, PrepareApsData.getJournalFromDoi(doi));
+				double journalCpy = updateCpyData(keys[0], thisDay);
 				double firstAuthorCpy = -2.0;
 				double authorMaxCpy = -2.0;
-				for (String author : authList) {
-					String authorKey = "A:" + author;
-					double authorCpy = updateCpyData(authorKey, thisDay);
+				for (int i = 0 ; i < authList.length ; i++) {
+					int author = getKeyId(authorIds, authList[i]);
+					keys[i + 1] = author;
+					authorStamps[author] = pubcount;
+					double authorCpy = updateCpyData(author, thisDay);
 					if (firstAuthorCpy == -2.0) {
 						firstAuthorCpy = authorCpy;
 					}
@@ -198,20 +213,22 @@ public class CalculatePaperSuccess {
 						authorMaxCpy = authorCpy;
 					}
 				}
+				String[] citList = d.getCitations().split(" ");
+				int[] citIds = new int[citList.length];
 				double selfcitMaxCy = 0.0;
-				for (String cit : d.getCitations().split(" ")) {
+				for (int i = 0 ; i < citList.length ; i++) {
+					int cit = paperIds.get(citList[i], -1);
+					citIds[i] = cit;
 					// Ignore citations that are not backwards in time:
-					if (!cpyMapKeys.containsKey(cit)) continue;
-					for (String k : cpyMapKeys.get(cit).split(" ")) {
-						if (!k.startsWith("A:")) continue;
-						k = k.substring(2);
-						if (authList.contains(k)) {
+					if (cit == -1 || paperKeys[cit] == null) continue;
+					int[] citKeys = paperKeys[cit];
+					// Author keys start at position 1:
+					for (int j = 1 ; j < citKeys.length ; j++) {
+						if (authorStamps[citKeys[j]] == pubcount) {
 							double selfcitCy = getPaperCy(cit, thisDay);
 							if (selfcitCy > selfcitMaxCy) selfcitMaxCy = selfcitCy;
-							continue;
 						}
 					}
-					
 				}
 
 				// Calculate meme scores
@@ -231,26 +248,20 @@ public class CalculatePaperSuccess {
 
 				csvWriter.write(doi, journalCpy, firstAuthorCpy, authorMaxCpy, selfcitMaxCy, thisDay - firstDay, pubcount, topMs, topMsMeme);
 
-				addCpyPaper(journalKey);
-				String cpyKeys = journalKey;
-				for (String author : authList) {
-					String authorKey = "A:" + author;
-					addCpyPaper(authorKey);
-					cpyKeys += " " + authorKey;
+				for (int k : keys) {
+					cpyPaperCount[k]++;
 				}
-				String[] citList = d.getCitations().split(" ");
-				for (String cit : citList) {
+				for (int cit : citIds) {
 					// Ignore citations that are not backwards in time:
-					if (!cpyMapKeys.containsKey(cit)) continue;
-					for (String k : cpyMapKeys.get(cit).split(" ")) {
-						addCpyCitation(k);
+					if (cit == -1 || paperKeys[cit] == null) continue;
+					for (int k : paperKeys[cit]) {
+						cpyCitationCount[k]++;
 					}
-					long date = paperDates.get(cit);
-					if (thisDay < date + 365*citationYears) {
-						paperCitations.put(cit, paperCitations.get(cit) + 1);
+					if (thisDay < paperDates[cit] + 365*citationYears) {
+						paperCitations[cit]++;
 					}
 				}
-				cpyMapKeys.put(doi, cpyKeys);
+				paperKeys[paper] = keys;
 				lastDay = thisDay;
 			}
 		} finally {
@@ -276,11 +287,11 @@ public class CalculatePaperSuccess {
 		csvMatrixWriter.write(line);
 
 		while ((line = csvReader.read()) != null) {
-			String doi = line.get(0);
-			long date = paperDates.get(doi);
+			int paper = paperIds.get(line.get(0), -1);
+			long date = paperDates[paper];
 			boolean completeRow = false;
 			if (lastDay >= date + 365*citationYears) {
-				line.add(paperCitations.get(doi).toString());
+				line.add(paperCitations[paper] + "");
 				completeRow = true;
 			} else {
 				line.add("-1");
@@ -297,37 +308,49 @@ public class CalculatePaperSuccess {
 		csvReader.close();
 	}
 
-	private double updateCpyData(String key, long thisDay) {
-		Long lastDay = cpyLastDay.get(key);
-		if (lastDay == null) lastDay = 0l;
-		long dayDiff = thisDay - lastDay;
-		Integer paperCount = cpyPaperCount.get(key);
-		if (paperCount == null) paperCount = 0;
-		Integer citationCount = cpyCitationCount.get(key);
-		if (citationCount == null) citationCount = 0;
-		Long paperDays = cpyPaperDays.get(key);
-		if (paperDays == null) paperDays = 0l;
-		paperDays = paperDays + paperCount*dayDiff;
-		cpyPaperDays.put(key, paperDays);
-		cpyLastDay.put(key, thisDay);
-		return (citationCount * 365.0) / (paperDays + 1);
+	private int getPaperId(String doi) {
+		int paper = paperIds.get(doi, -1);
+		if (paper == -1) {
+			paper = paperIds.size();
+			paperIds.put(doi, paper);
+			if (paper == paperDates.length) {
+				int l = paper * 2;
+				paperDates = Arrays.copyOf(paperDates, l);
+				paperCitations = Arrays.copyOf(paperCitations, l);
+				paperKeys = Arrays.copyOf(paperKeys, l);
+			}
+		}
+		return paper;
 	}
 
-	private double getPaperCy(String doi, long thisDay) {
-		long dayDiff = thisDay - paperDates.get(doi);
-		return (paperCitations.get(doi) * 365.0) / (dayDiff + 1);
+	private int getKeyId(StringIntMap keyIds, String name) {
+		int key = keyIds.get(name, -1);
+		if (key == -1) {
+			key = keyCount;
+			keyCount++;
+			keyIds.put(name, key);
+			if (key == cpyLastDay.length) {
+				int l = key * 2;
+				cpyLastDay = Arrays.copyOf(cpyLastDay, l);
+				cpyPaperDays = Arrays.copyOf(cpyPaperDays, l);
+				cpyPaperCount = Arrays.copyOf(cpyPaperCount, l);
+				cpyCitationCount = Arrays.copyOf(cpyCitationCount, l);
+				authorStamps = Arrays.copyOf(authorStamps, l);
+			}
+		}
+		return key;
 	}
 
-	private void addCpyPaper(String key) {
-		Integer paperCount = cpyPaperCount.get(key);
-		if (paperCount == null) paperCount = 0;
-		cpyPaperCount.put(key, paperCount + 1);
+	private double updateCpyData(int key, long thisDay) {
+		long dayDiff = thisDay - cpyLastDay[key];
+		cpyPaperDays[key] += cpyPaperCount[key]*dayDiff;
+		cpyLastDay[key] = thisDay;
+		return (cpyCitationCount[key] * 365.0) / (cpyPaperDays[key] + 1);
 	}
 
-	private void addCpyCitation(String key) {
-		Integer citationCount = cpyCitationCount.get(key);
-		if (citationCount == null) citationCount = 0;
-		cpyCitationCount.put(key, citationCount + 1);
+	private double getPaperCy(int paper, long thisDay) {
+		long dayDiff = thisDay - paperDates[paper];
+		return (paperCitations[paper] * 365.0) / (dayDiff + 1);
 	}
 
 	private static long getDayCount(String date) {
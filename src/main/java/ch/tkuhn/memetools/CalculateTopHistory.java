@@ -1,13 +1,18 @@
 package ch.tkuhn.memetools;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.supercsv.io.CsvListWriter;
 
@@ -33,6 +38,9 @@ public class CalculateTopHistory {
 	@Parameter(names = "-d", description = "Set n parameter")
 	private int delta = 1;
 
+	@Parameter(names = "-k", description = "Number of top memes per output entry")
+	private int topCount = 1;
+
 	@Parameter(names = "-o", description = "Output file")
 	private File outputFile;
 
@@ -60,6 +68,11 @@ public class CalculateTopHistory {
 			jc.usage();
 			System.exit(1);
 		}
+		if (obj.topCount <= 0) {
+			System.err.println("ERROR: Number of top memes has to be positive");
+			jc.usage();
+			System.exit(1);
+		}
 		if (obj.windowSize % obj.stepSize != 0) {
 			System.err.println("ERROR: Window size must be a multiple of step size");
 			jc.usage();
@@ -69,11 +82,17 @@ public class CalculateTopHistory {
 		obj.run();
 	}
 
-	private MemeScorer[] ms;
-	private List<String> topMemes;
+	private WindowedMemeScorer ms;
+	// Terms are identified by their position in the term list:
+	private List<String> terms;
+	private StringIntMap termIndexes;
+	// Scores of the current window, which are only recalculated for terms with changed counts:
+	private double[] scores;
+	private TreeSet<Integer> ranking;
+	private Set<String> topMemes;
 	private List<Double> secondScoreTimeline;
-	private List<Double> firstScoreTimeline;
-	private List<String> topMemeTimeline;
+	private List<double[]> topScoreTimeline;
+	private List<String[]> topMemeTimeline;
 
 	public void run() {
 		init();
@@ -98,55 +117,63 @@ public class CalculateTopHistory {
 		}
 
 		stepsPerWindow = windowSize / stepSize;
-		ms = new MemeScorer[stepsPerWindow];
-		ms[0] = new MemeScorer(MemeScorer.DECOMPOSED_SCREEN_MODE);
-		for (int i = 1 ; i < stepsPerWindow ; i++) {
-			ms[i] = new MemeScorer(ms[0], MemeScorer.DECOMPOSED_SCREEN_MODE);
-		}
+		ms = new WindowedMemeScorer(MemeScorer.DECOMPOSED_SCREEN_MODE, stepsPerWindow);
 
-		topMemes = new ArrayList<String>();
+		topMemes = new LinkedHashSet<String>();
 		secondScoreTimeline = new ArrayList<Double>();
-		firstScoreTimeline = new ArrayList<Double>();
-		topMemeTimeline = new ArrayList<String>();
+		topScoreTimeline = new ArrayList<double[]>();
+		topMemeTimeline = new ArrayList<String[]>();
 	}
 
 	private void extractTerms() throws IOException {
 		log("Extract terms from " + inputFile + " ...");
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		DataEntryReader reader = DataEntryReader.open(inputFile);
 		int entryCount = 0;
-		String inputLine;
-		while ((inputLine = reader.readLine()) != null) {
+		DataEntry d;
+		while ((d = reader.read()) != null) {
 			logProgress(entryCount);
-			DataEntry d = new DataEntry(inputLine);
-			ms[0].screenTerms(d);
+			ms.screenTerms(d);
 			entryCount++;
 		}
-		log("Number of terms extracted: " + ms[0].getTerms().size());
+		log("Number of terms extracted: " + ms.getTerms().size());
 		reader.close();
+
+		terms = new ArrayList<String>(ms.getTerms().keySet());
+		termIndexes = new StringIntMap(terms.size());
+		for (int i = 0 ; i < terms.size() ; i++) {
+			termIndexes.put(terms.get(i), i);
+		}
+		scores = new double[terms.size()];
+		Arrays.fill(scores, Double.NaN);
+		// Descending scores; terms with equal scores in the order of the term list:
+		ranking = new TreeSet<Integer>(new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				if (scores[i1] != scores[i2]) return scores[i1] > scores[i2] ? -1 : 1;
+				return i1.compareTo(i2);
+			}
+		});
 	}
 
 	private void processData() throws IOException {
 		log("Processing data from " + inputFile + " ...");
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+		DataEntryReader reader = DataEntryReader.open(inputFile);
 		int inputEntryCount = 0;
 		int outputEntryCount = 0;
-		int bin = 0;
-		String inputLine;
-		while ((inputLine = reader.readLine()) != null) {
+		DataEntry d;
+		while ((d = reader.read()) != null) {
 			logProgress(inputEntryCount);
-			DataEntry d = new DataEntry(inputLine);
-			ms[bin].recordTerms(d);
+			ms.recordTerms(d);
 			inputEntryCount++;
-			bin = (inputEntryCount % windowSize) / stepSize;
 			if (inputEntryCount % stepSize == 0) {
 				// Current bin is full
+				ms.completeBin();
 				if (inputEntryCount >= windowSize) {
 					// All bins are full
 					makeOutputEntry(outputEntryCount);
 					outputEntryCount++;
 				}
-				logDetail("Start new bin " + bin + " (at entry " + inputEntryCount + ")");
-				ms[bin].clear();
+				logDetail("Start new bin " + ms.getCurrentBin() + " (at entry " + inputEntryCount + ")");
 			}
 		}
 		log(outputEntryCount + " output entries created");
@@ -155,32 +182,31 @@ public class CalculateTopHistory {
 	}
 
 	private void makeOutputEntry(int count) {
-		String firstTerm = null;
-		double firstScore = -1.0;
+		for (String term : ms.takeChangedTerms()) {
+			int i = termIndexes.get(term, -1);
+			// Terms have to be removed from the ranking before their scores change:
+			if (!Double.isNaN(scores[i])) ranking.remove(i);
+			scores[i] = ms.calculateMemeScoreValues(term, delta)[3];
+			// Terms without a valid score are not ranked:
+			if (!Double.isNaN(scores[i])) ranking.add(i);
+		}
+		int n = Math.min(topCount, ranking.size());
+		String[] topTerms = new String[n];
+		double[] topScores = new double[n];
 		double secondScore = -1.0;
-		for (String term : ms[0].getTerms().keySet()) {
-			int mmVal = 0, mVal = 0, xmVal = 0, xVal = 0, fVal = 0;
-			for (MemeScorer m : ms) {
-				mmVal += m.getMM(term);
-				mVal += m.getM(term);
-				xmVal += m.getXM(term);
-				xVal += m.getX(term);
-				fVal += m.getF(term);
-			}
-			double score = MemeScorer.calculateMemeScoreValues(mmVal, mVal, xmVal, xVal, fVal, delta)[3];
-			if (score > firstScore) {
-				secondScore = firstScore;
-				firstScore = score;
-				firstTerm = term;
-			} else if (score > secondScore) {
-				secondScore = score;
+		int r = 0;
+		for (int i : ranking) {
+			if (r == n) {
+				secondScore = scores[i];
+				break;
 			}
+			topTerms[r] = terms.get(i);
+			topScores[r] = scores[i];
+			topMemes.add(topTerms[r]);
+			r++;
 		}
-		if (!topMemes.contains(firstTerm)) {
-			topMemes.add(firstTerm);
-		}
-		topMemeTimeline.add(firstTerm);
-		firstScoreTimeline.add(firstScore);
+		topMemeTimeline.add(topTerms);
+		topScoreTimeline.add(topScores);
 		secondScoreTimeline.add(secondScore);
 	}
 
@@ -189,22 +215,26 @@ public class CalculateTopHistory {
 		BufferedWriter w = new BufferedWriter(new FileWriter(outputFile));
 		CsvListWriter csvWriter = new CsvListWriter(w, MemeUtils.getCsvPreference());
 
+		// The first column has the highest score below the top memes:
 		List<String> line = new ArrayList<String>();
-		line.add("SECOND");
-		for (String term : topMemes) line.add(term);
+		line.add(topCount == 1 ? "SECOND" : "NEXT");
+		Map<String,Integer> columns = new HashMap<String,Integer>();
+		for (String term : topMemes) {
+			columns.put(term, line.size());
+			line.add(term);
+		}
 		csvWriter.write(line);
 
 		for (int i = 0 ; i < topMemeTimeline.size() ; i++) {
-			line = new ArrayList<String>();
-			line.add(secondScoreTimeline.get(i) + "");
-			for (String term : topMemes) {
-				if (term.equals(topMemeTimeline.get(i))) {
-					line.add((firstScoreTimeline.get(i) - secondScoreTimeline.get(i)) + "");
-				} else {
-					line.add("0");
-				}
+			String[] cells = new String[columns.size() + 1];
+			Arrays.fill(cells, "0");
+			double secondScore = secondScoreTimeline.get(i);
+			cells[0] = secondScore + "";
+			String[] topTerms = topMemeTimeline.get(i);
+			for (int j = 0 ; j < topTerms.length ; j++) {
+				cells[columns.get(topTerms[j])] = (topScoreTimeline.get(i)[j] - secondScore) + "";
 			}
-			csvWriter.write(line);
+			csvWriter.write(cells);
 		}
 
 		csvWriter.close();
@@ -214,6 +244,7 @@ public class CalculateTopHistory {
 		String basename = inputFile.getName().replaceAll("\\..*$", "");
 		basename = basename.replace("-chronologic", "");
 		String filename = "hi-topms-" + basename + "-d" + delta + "-w" + windowSize + "-s" + stepSize;
+		if (topCount > 1) filename += "-k" + topCount;
 		return filename;
 	}
 
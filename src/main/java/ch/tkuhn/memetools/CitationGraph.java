@@ -0,0 +1,195 @@
+package ch.tkuhn.memetools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Citation graph in compressed sparse row format, stored in a binary file that is memory-mapped. Nodes
+// are identified by the dense indexes of their WoS IDs (as in WosIdDictionary). For each node, the file
+// contains its references (outgoing edges) and its citations (incoming edges).
+public class CitationGraph {
+
+	// File layout: number of nodes (int), number of edges (long), IDs (int per node), reference
+	// offsets and citation offsets (long per node plus one), reference targets and citation sources
+	// (int per edge). Each section is mapped in segments of 2^SEGMENT_SHIFT elements.
+	private static final int SEGMENT_SHIFT = 27;
+	private static final int HEADER_SIZE = 12;
+
+	public interface ReferenceSource {
+
+		// Returns the nodes referenced by the given node
+		public int[] getReferences(int node) throws IOException;
+
+	}
+
+	private int nodeCount;
+	private long edgeCount;
+	private Section ids;
+	private Section refOffsets;
+	private Section citOffsets;
+	private Section refTargets;
+	private Section citSources;
+
+	private CitationGraph(FileChannel channel, FileChannel.MapMode mode, int nodeCount, long edgeCount) throws IOException {
+		this.nodeCount = nodeCount;
+		this.edgeCount = edgeCount;
+		long p = HEADER_SIZE;
+		ids = new Section(channel, mode, p, 4, nodeCount);
+		p += 4l * nodeCount;
+		refOffsets = new Section(channel, mode, p, 8, nodeCount + 1l);
+		p += 8l * (nodeCount + 1);
+		citOffsets = new Section(channel, mode, p, 8, nodeCount + 1l);
+		p += 8l * (nodeCount + 1);
+		refTargets = new Section(channel, mode, p, 4, edgeCount);
+		p += 4l * edgeCount;
+		citSources = new Section(channel, mode, p, 4, edgeCount);
+	}
+
+	public static CitationGraph open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		int nodeCount = raf.readInt();
+		long edgeCount = raf.readLong();
+		CitationGraph graph = new CitationGraph(raf.getChannel(), FileChannel.MapMode.READ_ONLY, nodeCount, edgeCount);
+		// Mappings stay valid after closing the file:
+		raf.close();
+		return graph;
+	}
+
+	// Writes the graph with the nodes of the given dictionary. The references are retrieved twice for
+	// each node: once to count them and once to write them.
+	public static void write(File file, WosIdDictionary dictionary, ReferenceSource source) throws IOException {
+		int n = dictionary.size();
+		long m = 0;
+		for (int i = 0 ; i < n ; i++) {
+			m += source.getReferences(i).length;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		raf.writeInt(n);
+		raf.writeLong(m);
+		// The file is filled with zeros up to its new length:
+		raf.setLength(HEADER_SIZE + 4l * n + 16l * (n + 1) + 8l * m);
+		CitationGraph graph = new CitationGraph(raf.getChannel(), FileChannel.MapMode.READ_WRITE, n, m);
+
+		// Write IDs and references, and count citations in the citation offsets:
+		long r = 0;
+		for (int i = 0 ; i < n ; i++) {
+			graph.ids.putInt(i, dictionary.getId(i));
+			graph.refOffsets.putLong(i, r);
+			for (int j : source.getReferences(i)) {
+				graph.refTargets.putInt(r, j);
+				r++;
+				graph.citOffsets.putLong(j + 1, graph.citOffsets.getLong(j + 1) + 1);
+			}
+		}
+		graph.refOffsets.putLong(n, r);
+		for (int i = 1 ; i <= n ; i++) {
+			graph.citOffsets.putLong(i, graph.citOffsets.getLong(i) + graph.citOffsets.getLong(i - 1));
+		}
+
+		// Fill in the citations, using the offsets as positions to write to, which leaves each
+		// offset at the value of its successor:
+		for (int i = 0 ; i < n ; i++) {
+			for (long e = graph.refOffsets.getLong(i) ; e < graph.refOffsets.getLong(i + 1) ; e++) {
+				int j = graph.refTargets.getInt(e);
+				long c = graph.citOffsets.getLong(j);
+				graph.citSources.putInt(c, i);
+				graph.citOffsets.putLong(j, c + 1);
+			}
+		}
+		for (int i = n ; i > 0 ; i--) {
+			graph.citOffsets.putLong(i, graph.citOffsets.getLong(i - 1));
+		}
+		graph.citOffsets.putLong(0, 0);
+		raf.close();
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public long getEdgeCount() {
+		return edgeCount;
+	}
+
+	public int getId(int node) {
+		return ids.getInt(node);
+	}
+
+	public WosIdDictionary getIdDictionary() {
+		WosIdDictionary dictionary = new WosIdDictionary();
+		for (int i = 0 ; i < nodeCount ; i++) {
+			dictionary.add(ids.getInt(i));
+		}
+		dictionary.freeze();
+		return dictionary;
+	}
+
+	public int[] getReferences(int node) {
+		return getNodes(refOffsets, refTargets, node);
+	}
+
+	public int[] getCitations(int node) {
+		return getNodes(citOffsets, citSources, node);
+	}
+
+	// Access to single references, without allocating arrays:
+
+	public int getReferenceCount(int node) {
+		return (int) (refOffsets.getLong(node + 1) - refOffsets.getLong(node));
+	}
+
+	public int getReference(int node, int i) {
+		return refTargets.getInt(refOffsets.getLong(node) + i);
+	}
+
+	private static int[] getNodes(Section offsets, Section nodes, int node) {
+		long start = offsets.getLong(node);
+		int[] result = new int[(int) (offsets.getLong(node + 1) - start)];
+		for (int i = 0 ; i < result.length ; i++) {
+			result[i] = nodes.getInt(start + i);
+		}
+		return result;
+	}
+
+
+	// Array of ints or longs in a part of the file
+	private static class Section {
+
+		private static final long MASK = (1l << SEGMENT_SHIFT) - 1;
+
+		private int elementSize;
+		private List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+		Section(FileChannel channel, FileChannel.MapMode mode, long position, int elementSize, long length) throws IOException {
+			this.elementSize = elementSize;
+			long size = length * elementSize;
+			long segmentSize = (long) elementSize << SEGMENT_SHIFT;
+			for (long p = 0 ; p < size ; p += segmentSize) {
+				segments.add(channel.map(mode, position + p, Math.min(segmentSize, size - p)));
+			}
+		}
+
+		int getInt(long i) {
+			return segments.get((int) (i >>> SEGMENT_SHIFT)).getInt((int) (i & MASK) * elementSize);
+		}
+
+		void putInt(long i, int value) {
+			segments.get((int) (i >>> SEGMENT_SHIFT)).putInt((int) (i & MASK) * elementSize, value);
+		}
+
+		long getLong(long i) {
+			return segments.get((int) (i >>> SEGMENT_SHIFT)).getLong((int) (i & MASK) * elementSize);
+		}
+
+		void putLong(long i, long value) {
+			segments.get((int) (i >>> SEGMENT_SHIFT)).putLong((int) (i & MASK) * elementSize, value);
+		}
+
+	}
+
+}
@@ -0,0 +1,178 @@
+package ch.tkuhn.memetools;
+
+import java.util.Arrays;
+
+// Suffix automaton over a token sequence (typically the tokens of all cited texts of an entry,
+// each preceded by an empty separator token). Walking the automaton token by token tells whether a
+// token sequence occurs, and how many (possibly overlapping) occurrences it has.
+public class CitedTextIndex {
+
+	public static final int ROOT = 0;
+	public static final int NONE = -1;
+
+	private static final long NO_KEY = -1l;
+
+	private int stateCount;
+	private int last;
+	private int[] length;
+	private int[] link;
+	private int[] occurrences;
+	private int[] firstEdge;
+
+	private int edgeCount;
+	private int[] edgeToken;
+	private int[] edgeTarget;
+	private int[] edgeNext;
+
+	private long[] slotKeys;
+	private int[] slotEdges;
+	private int slotMask;
+
+	private int[] lengthBuckets;
+	private int[] statesByLength;
+
+	public CitedTextIndex() {
+		allocate(16);
+	}
+
+	public void index(int[] tokens, int n) {
+		prepare(n);
+		for (int i = 0 ; i < n ; i++) {
+			extend(tokens[i]);
+		}
+		countOccurrences(n);
+	}
+
+	public int next(int state, int token) {
+		if (state == NONE || token < 0) return NONE;
+		int e = findEdge(state, token);
+		if (e == NONE) return NONE;
+		return edgeTarget[e];
+	}
+
+	public int getCount(int state) {
+		if (state == NONE) return 0;
+		return occurrences[state];
+	}
+
+	private void allocate(int n) {
+		int states = 2*n + 2;
+		int edges = 3*n + 3;
+		length = new int[states];
+		link = new int[states];
+		occurrences = new int[states];
+		firstEdge = new int[states];
+		edgeToken = new int[edges];
+		edgeTarget = new int[edges];
+		edgeNext = new int[edges];
+		int slots = Integer.highestOneBit(edges) * 4;
+		slotKeys = new long[slots];
+		slotEdges = new int[slots];
+		lengthBuckets = new int[n + 2];
+		statesByLength = new int[states];
+	}
+
+	private void prepare(int n) {
+		if (lengthBuckets.length < n + 2) {
+			allocate(Math.max(n, lengthBuckets.length * 2));
+		}
+		// Only the part of the hash table that fits the current input is used:
+		slotMask = Math.min(Integer.highestOneBit(3*n + 3) * 4, slotKeys.length) - 1;
+		Arrays.fill(slotKeys, 0, slotMask + 1, NO_KEY);
+		stateCount = 0;
+		edgeCount = 0;
+		last = newState(0, 0);
+		link[last] = NONE;
+	}
+
+	private int newState(int len, int occ) {
+		int s = stateCount++;
+		length[s] = len;
+		occurrences[s] = occ;
+		firstEdge[s] = NONE;
+		return s;
+	}
+
+	private void extend(int token) {
+		int cur = newState(length[last] + 1, 1);
+		int p = last;
+		while (p != NONE && findEdge(p, token) == NONE) {
+			addEdge(p, token, cur);
+			p = link[p];
+		}
+		if (p == NONE) {
+			link[cur] = ROOT;
+		} else {
+			int q = edgeTarget[findEdge(p, token)];
+			if (length[p] + 1 == length[q]) {
+				link[cur] = q;
+			} else {
+				int clone = newState(length[p] + 1, 0);
+				for (int e = firstEdge[q] ; e != NONE ; e = edgeNext[e]) {
+					addEdge(clone, edgeToken[e], edgeTarget[e]);
+				}
+				link[clone] = link[q];
+				int e;
+				while (p != NONE && edgeTarget[e = findEdge(p, token)] == q) {
+					edgeTarget[e] = clone;
+					p = link[p];
+				}
+				link[q] = clone;
+				link[cur] = clone;
+			}
+		}
+		last = cur;
+	}
+
+	private void countOccurrences(int n) {
+		Arrays.fill(lengthBuckets, 0, n + 2, 0);
+		for (int s = 0 ; s < stateCount ; s++) {
+			lengthBuckets[length[s] + 1]++;
+		}
+		for (int l = 1 ; l < n + 2 ; l++) {
+			lengthBuckets[l] += lengthBuckets[l-1];
+		}
+		for (int s = 0 ; s < stateCount ; s++) {
+			statesByLength[lengthBuckets[length[s]]++] = s;
+		}
+		for (int i = stateCount - 1 ; i > 0 ; i--) {
+			int s = statesByLength[i];
+			occurrences[link[s]] += occurrences[s];
+		}
+	}
+
+	private int findEdge(int state, int token) {
+		long key = getKey(state, token);
+		int slot = getSlot(key);
+		while (slotKeys[slot] != NO_KEY) {
+			if (slotKeys[slot] == key) return slotEdges[slot];
+			slot = (slot + 1) & slotMask;
+		}
+		return NONE;
+	}
+
+	private void addEdge(int state, int token, int target) {
+		int e = edgeCount++;
+		edgeToken[e] = token;
+		edgeTarget[e] = target;
+		edgeNext[e] = firstEdge[state];
+		firstEdge[state] = e;
+		long key = getKey(state, token);
+		int slot = getSlot(key);
+		while (slotKeys[slot] != NO_KEY) {
+			slot = (slot + 1) & slotMask;
+		}
+		slotKeys[slot] = key;
+		slotEdges[slot] = e;
+	}
+
+	private static long getKey(int state, int token) {
+		return ((long) state << 32) | (token & 0xffffffffl);
+	}
+
+	private int getSlot(long key) {
+		long h = key * 0x9e3779b97f4a7c15l;
+		return (int) (h >>> 32) & slotMask;
+	}
+
+}
@@ -0,0 +1,97 @@
+package ch.tkuhn.memetools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Assignment of documents to communities, as given by community map files with lines of the form
+// "DOCUMENT-ID COMMUNITY-ID". Communities are identified by their indexes in the numeric order of
+// their IDs. Documents that are not in the file are assigned to the default community (if given).
+public class CommunityMap {
+
+	public static final int NONE = -1;
+
+	// Community indexes in the order of first appearance, mapped to the sorted ones by sortedIndexes:
+	private StringIntMap documentCommunities;
+	private int[] sortedIndexes;
+	private List<String> communities;
+	private int defaultCommunity;
+
+	public CommunityMap(File file, String defaultCommunityId) throws IOException {
+		documentCommunities = new StringIntMap();
+		StringIntMap communityIndexes = new StringIntMap();
+		communities = new ArrayList<String>();
+		if (defaultCommunityId != null) {
+			communityIndexes.put(defaultCommunityId, 0);
+			communities.add(defaultCommunityId);
+		}
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] parts = line.split(" ");
+			String c = parts[1];
+			int i = communityIndexes.get(c, NONE);
+			if (i == NONE) {
+				i = communities.size();
+				communityIndexes.put(c, i);
+				communities.add(c);
+			}
+			documentCommunities.put(parts[0], i);
+		}
+		reader.close();
+
+		// Renumber the communities in the order of their IDs:
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0 ; i < communities.size() ; i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				Integer i1 = Integer.parseInt(communities.get(o1));
+				Integer i2 = Integer.parseInt(communities.get(o2));
+				return i1.compareTo(i2);
+			}
+		});
+		sortedIndexes = new int[communities.size()];
+		List<String> sorted = new ArrayList<String>();
+		for (int i : order) {
+			sortedIndexes[i] = sorted.size();
+			sorted.add(communities.get(i));
+		}
+		communities = sorted;
+		defaultCommunity = NONE;
+		if (defaultCommunityId != null) {
+			defaultCommunity = sortedIndexes[0];
+		}
+	}
+
+	public CommunityMap(File file) throws IOException {
+		this(file, null);
+	}
+
+	// Returns the index of the community of the given document (or of the default community)
+	public int getCommunity(String documentId) {
+		int i = documentCommunities.get(documentId, NONE);
+		if (i == NONE) return defaultCommunity;
+		return sortedIndexes[i];
+	}
+
+	public int getCommunityCount() {
+		return communities.size();
+	}
+
+	public String getCommunityId(int community) {
+		return communities.get(community);
+	}
+
+	public List<String> getCommunityIds() {
+		return Collections.unmodifiableList(communities);
+	}
+
+}
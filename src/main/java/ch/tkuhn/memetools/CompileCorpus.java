@@ -0,0 +1,94 @@
+package ch.tkuhn.memetools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+// Compiles a prepared data file into a binary corpus file, which can be given to the analysis tools
+// instead of the text file to avoid parsing and tokenizing the entries again and again.
+public class CompileCorpus {
+
+	@Parameter(description = "input-file", required = true)
+	private List<String> parameters = new ArrayList<String>();
+
+	private File inputFile;
+
+	@Parameter(names = "-o", description = "Output file")
+	private File outputFile;
+
+	private File logFile;
+
+	public static final void main(String[] args) {
+		CompileCorpus obj = new CompileCorpus();
+		JCommander jc = new JCommander(obj);
+		try {
+			jc.parse(args);
+		} catch (ParameterException ex) {
+			jc.usage();
+			System.exit(1);
+		}
+		if (obj.parameters.size() != 1) {
+			System.err.println("ERROR: Exactly one main argument is needed");
+			jc.usage();
+			System.exit(1);
+		}
+		obj.inputFile = new File(obj.parameters.get(0));
+		obj.run();
+	}
+
+	public CompileCorpus() {
+	}
+
+	public void run() {
+		init();
+		log("==========");
+
+		try {
+			compile();
+		} catch (IOException ex) {
+			log(ex);
+			System.exit(1);
+		}
+
+		log("Finished");
+	}
+
+	private void init() {
+		String basename = inputFile.getName().replaceAll("\\..*$", "");
+		if (outputFile == null) {
+			outputFile = new File(inputFile.getParentFile(), basename + BinaryCorpus.FILE_EXTENSION);
+		}
+		logFile = new File(MemeUtils.getLogDir(), "compile-" + basename + ".log");
+	}
+
+	private void compile() throws IOException {
+		log("Reading input file: " + inputFile);
+		log("Writing binary corpus: " + outputFile);
+		DataEntryReader reader = new MappedDataEntryReader(inputFile, MemeUtils.getDefaultReaderThreadCount(), true);
+		BinaryCorpus.Writer writer = new BinaryCorpus.Writer(outputFile);
+		int n = 0;
+		DataEntry d;
+		while ((d = reader.read()) != null) {
+			n++;
+			logProgress(n);
+			writer.write(d);
+		}
+		reader.close();
+		writer.close();
+		log("Number of entries: " + n);
+	}
+
+	private void logProgress(int p) {
+		if (p % 100000 == 0) log(p + "...");
+	}
+
+	private void log(Object obj) {
+		MemeUtils.log(logFile, obj);
+	}
+
+}
@@ -0,0 +1,67 @@
+package ch.tkuhn.memetools;
+
+// Count-min sketch with conservative update: approximate counts for a very large number of keys in a
+// fixed amount of memory. Estimates are never lower than the true counts. Keys are given as 64-bit
+// hashes, as calculated by hash(CharSequence).
+public class CountMinSketch {
+
+	private int depth;
+	private int width;
+	private int[] cells;
+
+	public CountMinSketch(long bytes, int depth) {
+		this.depth = depth;
+		long w = bytes / 4 / depth;
+		if (w < 1 || w > Integer.MAX_VALUE / depth) {
+			throw new IllegalArgumentException("Invalid sketch size: " + bytes + " bytes");
+		}
+		width = (int) w;
+		cells = new int[depth * width];
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public void add(long hash) {
+		int min = estimate(hash);
+		if (min == Integer.MAX_VALUE) return;
+		// Only the cells with the minimal value need to be increased:
+		for (int i = 0 ; i < depth ; i++) {
+			int c = getCell(hash, i);
+			if (cells[c] == min) cells[c]++;
+		}
+	}
+
+	public int estimate(long hash) {
+		int min = Integer.MAX_VALUE;
+		for (int i = 0 ; i < depth ; i++) {
+			min = Math.min(min, cells[getCell(hash, i)]);
+		}
+		return min;
+	}
+
+	private int getCell(long hash, int row) {
+		// Combination of two hash values to get one per row:
+		int h = (int) hash + row * (int) (hash >>> 32);
+		return row * width + (h & Integer.MAX_VALUE) % width;
+	}
+
+	// 64-bit hash (FNV-1a with final mixing)
+	public static long hash(CharSequence s) {
+		long h = 0xcbf29ce484222325l;
+		for (int i = 0 ; i < s.length() ; i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3l;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdl;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
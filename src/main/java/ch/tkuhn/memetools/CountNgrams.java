@@ -1,16 +1,27 @@
 package ch.tkuhn.memetools;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.supercsv.io.CsvListWriter;
 
@@ -37,6 +48,15 @@ public class CountNgrams {
 	@Parameter(names = "-f", description = "Read terms from file")
 	private File termsFile;
 
+	@Parameter(names = "-mem", description = "Memory in MB for approximate counting: n-grams are first counted with " +
+			"a sketch of this size, and then only the candidates above the threshold are counted exactly " +
+			"(0 = exact counting)")
+	private int memory = 0;
+
+	@Parameter(names = "-b", description = "Maximal number of n-grams to keep in memory; sorted runs of them are " +
+			"written to disk when this is reached and merged at the end (0 = no limit)")
+	private int bufferSize = 0;
+
 	@Parameter(names = "-y", description = "Count n-grams for given year")
 	private Integer year;
 
@@ -46,6 +66,9 @@ public class CountNgrams {
 	@Parameter(names = "-ye", description = "Count n-grams for time period with given end year")
 	private Integer yearEnd;
 
+	@Parameter(names = "-v", description = "Write detailed log")
+	private boolean verbose = false;
+
 	private File logFile;
 
 	public static final void main(String[] args) {
@@ -68,6 +91,11 @@ public class CountNgrams {
 
 	private Map<String,Integer> ngrams;
 	private List<String> terms;
+	private CountMinSketch sketch;
+	private List<File> runFiles;
+
+	private static final int SKETCH_DEPTH = 4;
+	private static final int MAX_MERGE_RUNS = 64;
 
 	public CountNgrams() {
 	}
@@ -79,6 +107,8 @@ public class CountNgrams {
 		try {
 			if (termsFile != null) {
 				readTerms();
+			} else if (memory > 0) {
+				countWithSketch();
 			}
 			extractTerms();
 			processTerms();
@@ -97,6 +127,7 @@ public class CountNgrams {
 		logFile = new File(MemeUtils.getLogDir(), getOutputFileName() + ".log");
 
 		ngrams = new HashMap<String,Integer>();
+		runFiles = new ArrayList<File>();
 
 		if (termsFile != null) {
 			terms = new ArrayList<String>();
@@ -114,30 +145,57 @@ public class CountNgrams {
 		reader.close();
 	}
 
+	private void countWithSketch() throws IOException {
+		log("Counting n-grams with sketch of " + memory + " MB: " + inputFile);
+		sketch = new CountMinSketch((long) memory * 1024 * 1024, SKETCH_DEPTH);
+		int n = 0;
+		DataEntryReader reader = DataEntryReader.open(inputFile);
+		DataEntry d;
+		while ((d = reader.read()) != null) {
+			n++;
+			logProgress(n);
+			if (!considerYear(d.getYear())) continue;
+			for (String term : getNgrams(d)) {
+				sketch.add(CountMinSketch.hash(term));
+			}
+		}
+		reader.close();
+	}
+
 	private void extractTerms() throws IOException {
 		log("Extracting terms from input file: " + inputFile);
+		TermListMatcher termMatcher = null;
+		if (termsFile != null) {
+			termMatcher = new TermListMatcher(terms);
+		}
 		int n = 0;
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-		String line;
-		while ((line = reader.readLine()) != null) {
+		DataEntryReader reader = DataEntryReader.open(inputFile);
+		DataEntry d;
+		while ((d = reader.read()) != null) {
 			n++;
 			logProgress(n);
-			DataEntry d = new DataEntry(line);
 			if (!considerYear(d.getYear())) continue;
 			if (termsFile == null) {
 				recordNgrams(d);
 			} else {
-				String t = " " + d.getText() + " ";
-				for (String term : terms) {
-					if (t.contains(" " + term + " ")) {
-						increaseCount(term);
-					}
+				for (int i : termMatcher.findTerms(d.getText())) {
+					increaseCount(terms.get(i));
 				}
 			}
+			if (bufferSize > 0 && ngrams.size() >= bufferSize) {
+				writeRun();
+			}
 		}
 		reader.close();
 		log("Total number of documents: " + n);
-		log("Number of unique n-grams: " + ngrams.size());
+		if (!runFiles.isEmpty()) {
+			writeRun();
+			log("Number of runs written to disk: " + runFiles.size());
+		} else if (sketch == null) {
+			log("Number of unique n-grams: " + ngrams.size());
+		} else {
+			log("Number of candidate n-grams: " + ngrams.size());
+		}
 	}
 
 	private void processTerms() throws IOException {
@@ -146,18 +204,78 @@ public class CountNgrams {
 		Writer w = new BufferedWriter(new FileWriter(outputFile));
 		CsvListWriter csvWriter = new CsvListWriter(w, MemeUtils.getCsvPreference());
 		csvWriter.write("COUNT", "TERM");
-		for (String term : ngrams.keySet()) {
-			int c = ngrams.get(term);
-			if (c >= t) {
-				n++;
-				logProgress(n);
-				csvWriter.write(c, term);
+		if (runFiles.isEmpty()) {
+			for (String term : ngrams.keySet()) {
+				int c = ngrams.get(term);
+				if (c >= t) {
+					n++;
+					logProgress(n);
+					csvWriter.write(c, term);
+				}
+			}
+		} else {
+			while (runFiles.size() > MAX_MERGE_RUNS) {
+				log("Merging " + MAX_MERGE_RUNS + " of " + runFiles.size() + " runs...");
+				List<File> merged = new ArrayList<File>(runFiles.subList(0, MAX_MERGE_RUNS));
+				runFiles.subList(0, MAX_MERGE_RUNS).clear();
+				File runFile = getRunFile();
+				DataOutputStream out = openRun(runFile);
+				RunMerger merger = new RunMerger(merged);
+				while (merger.next()) {
+					writeRunEntry(out, merger.getTerm(), merger.getCount());
+				}
+				out.close();
+				merger.close();
+				runFiles.add(runFile);
+			}
+			log("Merging " + runFiles.size() + " runs...");
+			RunMerger merger = new RunMerger(runFiles);
+			while (merger.next()) {
+				// Runs contain document frequencies; see increaseCount:
+				int c = merger.getCount() - 1;
+				if (c >= t) {
+					n++;
+					logProgress(n);
+					csvWriter.write(c, merger.getTerm());
+				}
 			}
+			merger.close();
 		}
 		csvWriter.close();
 		log("Number of n-grams after filtering: " + n);
 	}
 
+	// Writes the n-grams in memory to a new run file, sorted by n-gram
+	private void writeRun() throws IOException {
+		List<String> sortedTerms = new ArrayList<String>(ngrams.keySet());
+		Collections.sort(sortedTerms);
+		File runFile = getRunFile();
+		logDetail("Writing " + sortedTerms.size() + " n-grams to " + runFile);
+		DataOutputStream out = openRun(runFile);
+		for (String term : sortedTerms) {
+			// Document frequency:
+			writeRunEntry(out, term, ngrams.get(term) + 1);
+		}
+		out.close();
+		runFiles.add(runFile);
+		ngrams.clear();
+	}
+
+	private File getRunFile() throws IOException {
+		return File.createTempFile(getOutputFileName() + "-run", ".tmp", MemeUtils.getOutputDataDir());
+	}
+
+	private static DataOutputStream openRun(File runFile) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+	}
+
+	private static void writeRunEntry(DataOutputStream out, String term, int count) throws IOException {
+		byte[] b = term.getBytes(MemeUtils.UTF8);
+		out.writeInt(b.length);
+		out.write(b);
+		out.writeInt(count);
+	}
+
 	private String getOutputFileName() {
 		String basename = inputFile.getName().replaceAll("\\..*$", "");
 		String filename = "fr-" + basename;
@@ -184,19 +302,27 @@ public class CountNgrams {
 	}
 
 	private void recordNgrams(DataEntry d) {
-		Map<String,Boolean> processed = new HashMap<String,Boolean>();
-		String[] tokens = d.getText().trim().split(" ");
+		for (String term : getNgrams(d)) {
+			// The counts start at 0 (see increaseCount), so the sketch estimates are one higher:
+			if (sketch != null && sketch.estimate(CountMinSketch.hash(term)) <= t) continue;
+			increaseCount(term);
+		}
+	}
+
+	// Returns the distinct n-grams of the given entry, in the order of their first occurrence
+	private Set<String> getNgrams(DataEntry d) {
+		Set<String> terms = new LinkedHashSet<String>();
+		String[] tokens = d.getTextTokens();
 		for (int p1 = 0 ; p1 < tokens.length ; p1++) {
 			String term = "";
 			for (int p2 = p1 ; p2 < tokens.length ; p2++) {
 				if (p2 - p1 > g - 1) break;
 				term += " " + tokens[p2];
 				term = term.trim();
-				if (processed.containsKey(term)) continue;
-				processed.put(term, true);
-				increaseCount(term);
+				terms.add(term);
 			}
 		}
+		return terms;
 	}
 
 	private void increaseCount(String term) {
@@ -207,6 +333,91 @@ public class CountNgrams {
 		}
 	}
 
+	// Merges sorted run files, adding up the counts of equal n-grams. Run files are deleted when closed.
+	private static class RunMerger {
+
+		private List<File> files;
+		private List<DataInputStream> inputs;
+		private PriorityQueue<RunEntry> queue;
+		private String term;
+		private int count;
+
+		public RunMerger(List<File> files) throws IOException {
+			this.files = files;
+			inputs = new ArrayList<DataInputStream>();
+			queue = new PriorityQueue<RunEntry>();
+			for (File f : files) {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+				inputs.add(in);
+				RunEntry e = new RunEntry(in);
+				if (e.read()) queue.add(e);
+			}
+		}
+
+		public boolean next() throws IOException {
+			if (queue.isEmpty()) return false;
+			RunEntry e = queue.poll();
+			term = e.term;
+			count = e.count;
+			if (e.read()) queue.add(e);
+			while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+				e = queue.poll();
+				count += e.count;
+				if (e.read()) queue.add(e);
+			}
+			return true;
+		}
+
+		public String getTerm() {
+			return term;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void close() throws IOException {
+			for (DataInputStream in : inputs) {
+				in.close();
+			}
+			for (File f : files) {
+				f.delete();
+			}
+		}
+
+	}
+
+	private static class RunEntry implements Comparable<RunEntry> {
+
+		private DataInputStream in;
+		private String term;
+		private int count;
+
+		public RunEntry(DataInputStream in) {
+			this.in = in;
+		}
+
+		public boolean read() throws IOException {
+			int l;
+			try {
+				l = in.readInt();
+			} catch (EOFException ex) {
+				return false;
+			}
+			byte[] b = new byte[l];
+			in.readFully(b);
+			term = new String(b, MemeUtils.UTF8);
+			count = in.readInt();
+			return true;
+		}
+
+		@Override
+		public int compareTo(RunEntry other) {
+			return term.compareTo(other.term);
+		}
+
+	}
+
 	private void logProgress(int p) {
 		if (p % 100000 == 0) log(p + "...");
 	}
@@ -215,4 +426,8 @@ public class CountNgrams {
 		MemeUtils.log(logFile, obj);
 	}
 
+	private void logDetail(Object obj) {
+		if (verbose) log(obj);
+	}
+
 }
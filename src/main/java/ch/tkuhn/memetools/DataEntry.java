@@ -3,6 +3,8 @@ package ch.tkuhn.memetools;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
+
 public class DataEntry {
 
 	public static final String SEP = "  ";
@@ -16,6 +18,12 @@ public class DataEntry {
 	private String authors;
 	private String citations;
 
+	private DataEntryParser parser;
+	private String[] rawTextTokens;
+	private List<String[]> rawCitedTextTokens;
+	private String[] textTokens;
+	private List<String[]> citedTextTokens;
+
 	public DataEntry(Object id, Object date, String text, List<String> citedText) {
 		this.id = id;
 		this.date = date;
@@ -28,29 +36,23 @@ public class DataEntry {
 	}
 
 	public DataEntry(String line) {
-		String[] splitline = line.split("  ", -1);
-		int l = splitline.length;
-		int tpos = 2;
-		if (l < 3) {
-			throw new RuntimeException("Invalid line: " + line);
-		}
-		date = splitline[0];
-		id = splitline[1];
-		while (splitline[tpos].matches("[A-Z]:.*")) {
-			if (splitline[tpos].startsWith(AUTHORS_MARKER)) {
-				authors = splitline[tpos].substring(AUTHORS_MARKER.length());
-			} else if (splitline[tpos].startsWith(CITATIONS_MARKER)) {
-				citations = splitline[tpos].substring(CITATIONS_MARKER.length());
-			} else {
-				break;
-			}
-			tpos++;
-		}
-		text = splitline[tpos];
-		citedText = new ArrayList<String>();
-		for (int i = tpos+1 ; i < splitline.length ; i++) {
-			citedText.add(splitline[i]);
-		}
+		parser = new DataEntryParser();
+		parser.parse(line);
+		date = parser.getDate();
+		id = parser.getId();
+		authors = parser.getAuthors();
+		citations = parser.getCitations();
+		// Text and cited texts are only extracted from the line when needed
+	}
+
+	// Entry with texts given as tokens (as split by single spaces), as stored in binary corpus files:
+	DataEntry(String id, String date, String authors, String citations, String[] textTokens, List<String[]> citedTextTokens) {
+		this.id = id;
+		this.date = date;
+		this.authors = authors;
+		this.citations = citations;
+		this.rawTextTokens = textTokens;
+		this.rawCitedTextTokens = citedTextTokens;
 	}
 
 	protected void setAuthors(String authors) {
@@ -92,15 +94,82 @@ public class DataEntry {
 	}
 
 	public String getText() {
+		if (text == null) {
+			if (parser != null) {
+				text = parser.getText();
+			} else {
+				text = StringUtils.join(rawTextTokens, " ");
+			}
+		}
 		return text;
 	}
 
 	public List<String> getCitedText() {
+		if (citedText == null) {
+			citedText = new ArrayList<String>();
+			if (parser != null) {
+				for (int i = 0 ; i < parser.getCitedTextCount() ; i++) {
+					citedText.add(parser.getCitedText(i));
+				}
+				getText();
+				parser = null;
+			} else {
+				for (String[] tokens : rawCitedTextTokens) {
+					citedText.add(StringUtils.join(tokens, " "));
+				}
+			}
+		}
 		return citedText;
 	}
 
 	public void addCitedText(String t) {
-		citedText.add(t);
+		getCitedText().add(t);
+		rawCitedTextTokens = null;
+		citedTextTokens = null;
+	}
+
+	// Tokens of the trimmed text, as returned by getText().trim().split(" ")
+	public String[] getTextTokens() {
+		if (textTokens == null) {
+			textTokens = getTokens(getText(), rawTextTokens);
+		}
+		return textTokens;
+	}
+
+	// Tokens of the trimmed cited texts, as returned by c.trim().split(" ")
+	public List<String[]> getCitedTextTokens() {
+		if (citedTextTokens == null) {
+			citedTextTokens = new ArrayList<String[]>();
+			if (rawCitedTextTokens != null) {
+				for (String[] tokens : rawCitedTextTokens) {
+					citedTextTokens.add(getTokens(null, tokens));
+				}
+			} else {
+				for (String c : getCitedText()) {
+					citedTextTokens.add(getTokens(c, null));
+				}
+			}
+		}
+		return citedTextTokens;
+	}
+
+	private static String[] getTokens(String text, String[] rawTokens) {
+		if (rawTokens != null && !needsTrimming(rawTokens)) {
+			return rawTokens;
+		}
+		if (text == null) {
+			text = StringUtils.join(rawTokens, " ");
+		}
+		return text.trim().split(" ");
+	}
+
+	private static boolean needsTrimming(String[] tokens) {
+		String first = tokens[0];
+		String last = tokens[tokens.length-1];
+		if (tokens.length > 1 && (first.isEmpty() || last.isEmpty())) return true;
+		if (!first.isEmpty() && first.charAt(0) <= ' ') return true;
+		if (!last.isEmpty() && last.charAt(last.length()-1) <= ' ') return true;
+		return false;
 	}
 
 	public String getLine() {
@@ -111,8 +180,8 @@ public class DataEntry {
 		if (citations != null) {
 			line += SEP + CITATIONS_MARKER + citations;
 		}
-		line += SEP + text;
-		for (String c : citedText) {
+		line += SEP + getText();
+		for (String c : getCitedText()) {
 			line += SEP + c;
 		}
 		return line;
@@ -0,0 +1,243 @@
+package ch.tkuhn.memetools;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+// Parses lines of prepared data files in place: the fields (separated by double spaces) are only
+// located, and strings are created when a field is requested. A parser can be reused for any number
+// of lines. Lines can also be given as byte ranges of a buffer (in an ASCII-compatible encoding).
+public class DataEntryParser {
+
+	public static final int NONE = -1;
+
+	private static final int DATE_FIELD = 0;
+	private static final int ID_FIELD = 1;
+
+	private CharSequence chars;
+	private ByteBuffer bytes;
+	private ByteBuffer bulkBytes;
+	private Charset charset;
+	private byte[] byteArray;
+
+	private int[] fieldStarts = new int[16];
+	private int[] fieldEnds = new int[16];
+	private int fieldCount;
+
+	private int authorsField;
+	private int citationsField;
+	private int textField;
+
+	public DataEntryParser() {
+	}
+
+	public void parse(CharSequence line) {
+		chars = line;
+		fieldCount = 0;
+		int start = 0;
+		int l = line.length();
+		int i = 0;
+		while (i < l - 1) {
+			if (line.charAt(i) == ' ' && line.charAt(i+1) == ' ') {
+				addField(start, i);
+				i += 2;
+				start = i;
+			} else {
+				i++;
+			}
+		}
+		addField(start, l);
+		locateFields();
+	}
+
+	// Parses the line given by the bytes from start (inclusive) to end (exclusive), using the default
+	// charset (as FileReader does)
+	public void parse(ByteBuffer buffer, int start, int end) {
+		parse(buffer, start, end, Charset.defaultCharset());
+	}
+
+	public void parse(ByteBuffer buffer, int start, int end, Charset charset) {
+		chars = null;
+		if (buffer != bytes) {
+			bytes = buffer;
+			bulkBytes = buffer.duplicate();
+		}
+		this.charset = charset;
+		fieldCount = 0;
+		int fieldStart = start;
+		int i = start;
+		while (i < end - 1) {
+			if (buffer.get(i) == ' ' && buffer.get(i+1) == ' ') {
+				addField(fieldStart, i);
+				i += 2;
+				fieldStart = i;
+			} else {
+				i++;
+			}
+		}
+		addField(fieldStart, end);
+		locateFields();
+	}
+
+	private void addField(int start, int end) {
+		if (fieldCount == fieldStarts.length) {
+			int[] s = new int[fieldCount * 2];
+			int[] e = new int[fieldCount * 2];
+			System.arraycopy(fieldStarts, 0, s, 0, fieldCount);
+			System.arraycopy(fieldEnds, 0, e, 0, fieldCount);
+			fieldStarts = s;
+			fieldEnds = e;
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		fieldCount++;
+	}
+
+	private void locateFields() {
+		if (fieldCount < 3) {
+			throw new RuntimeException("Invalid line: " + getLine());
+		}
+		authorsField = NONE;
+		citationsField = NONE;
+		int f = 2;
+		while (f < fieldCount && isMarkedField(f)) {
+			char marker = charAt(fieldStarts[f]);
+			if (marker == DataEntry.AUTHORS_MARKER.charAt(0)) {
+				authorsField = f;
+			} else if (marker == DataEntry.CITATIONS_MARKER.charAt(0)) {
+				citationsField = f;
+			} else {
+				break;
+			}
+			f++;
+		}
+		if (f == fieldCount) {
+			throw new RuntimeException("Invalid line: " + getLine());
+		}
+		textField = f;
+	}
+
+	// Fields of the form "[A-Z]:..." (without line terminators, as matched by '.')
+	private boolean isMarkedField(int f) {
+		int s = fieldStarts[f];
+		int e = fieldEnds[f];
+		if (e - s < 2) return false;
+		char c = charAt(s);
+		if (c < 'A' || c > 'Z' || charAt(s + 1) != ':') return false;
+		if (chars == null) {
+			for (int i = s + 2 ; i < e ; i++) {
+				byte b = bytes.get(i);
+				if (b == '\n' || b == '\r') return false;
+				// Other line terminators are not ASCII and need decoding:
+				if (b < 0) return !hasLineTerminator(getString(s + 2, e));
+			}
+			return true;
+		}
+		for (int i = s + 2 ; i < e ; i++) {
+			if (isLineTerminator(chars.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	private static boolean hasLineTerminator(String s) {
+		for (int i = 0 ; i < s.length() ; i++) {
+			if (isLineTerminator(s.charAt(i))) return true;
+		}
+		return false;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	// Only for checking ASCII characters, which stand for themselves in all supported encodings:
+	private char charAt(int i) {
+		if (chars != null) return chars.charAt(i);
+		return (char) (bytes.get(i) & 0xff);
+	}
+
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	public int getFieldStart(int field) {
+		return fieldStarts[field];
+	}
+
+	public int getFieldEnd(int field) {
+		return fieldEnds[field];
+	}
+
+	public String getField(int field) {
+		return getString(fieldStarts[field], fieldEnds[field]);
+	}
+
+	public int getAuthorsField() {
+		return authorsField;
+	}
+
+	public int getCitationsField() {
+		return citationsField;
+	}
+
+	public int getTextField() {
+		return textField;
+	}
+
+	public int getCitedTextCount() {
+		return fieldCount - textField - 1;
+	}
+
+	public String getDate() {
+		return getField(DATE_FIELD);
+	}
+
+	public String getId() {
+		return getField(ID_FIELD);
+	}
+
+	public String getAuthors() {
+		if (authorsField == NONE) return null;
+		return getString(fieldStarts[authorsField] + DataEntry.AUTHORS_MARKER.length(), fieldEnds[authorsField]);
+	}
+
+	public String getCitations() {
+		if (citationsField == NONE) return null;
+		return getString(fieldStarts[citationsField] + DataEntry.CITATIONS_MARKER.length(), fieldEnds[citationsField]);
+	}
+
+	public String getText() {
+		return getField(textField);
+	}
+
+	public String getCitedText(int i) {
+		return getField(textField + 1 + i);
+	}
+
+	private String getLine() {
+		return getString(fieldStarts[0], fieldEnds[fieldCount-1]);
+	}
+
+	private String getString(int start, int end) {
+		if (chars != null) return chars.subSequence(start, end).toString();
+		int l = end - start;
+		if (byteArray == null || byteArray.length < l) {
+			byteArray = new byte[Math.max(l, byteArray == null ? 256 : byteArray.length * 2)];
+		}
+		bulkBytes.limit(end);
+		bulkBytes.position(start);
+		bulkBytes.get(byteArray, 0, l);
+		return new String(byteArray, 0, l, charset);
+	}
+
+	// Creates an entry with all fields copied, so the parser (and the buffer) can be reused
+	public DataEntry toEntry() {
+		DataEntry d = new DataEntry(getId(), getDate(), getText());
+		d.setAuthors(getAuthors());
+		d.setCitations(getCitations());
+		for (int i = 0 ; i < getCitedTextCount() ; i++) {
+			d.addCitedText(getCitedText(i));
+		}
+		return d;
+	}
+
+}
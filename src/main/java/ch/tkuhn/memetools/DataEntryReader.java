@@ -0,0 +1,27 @@
+package ch.tkuhn.memetools;
+
+import java.io.File;
+import java.io.IOException;
+
+// Reads data entries either from a prepared text file (one entry per line) or from a binary corpus
+// file as written by CompileCorpus.
+public abstract class DataEntryReader {
+
+	public static DataEntryReader open(File file) throws IOException {
+		return open(file, MemeUtils.getDefaultReaderThreadCount(), true);
+	}
+
+	// Entries are returned in the order of the file only in ordered mode
+	public static DataEntryReader open(File file, int threads, boolean ordered) throws IOException {
+		if (BinaryCorpus.isBinaryCorpus(file)) {
+			return new BinaryCorpus.Reader(file);
+		}
+		return new MappedDataEntryReader(file, threads, ordered);
+	}
+
+	// Returns null at the end of the input
+	public abstract DataEntry read() throws IOException;
+
+	public abstract void close() throws IOException;
+
+}
@@ -8,9 +8,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.supercsv.io.CsvListReader;
 import org.supercsv.io.CsvListWriter;
@@ -41,6 +44,9 @@ public class DetectJournalTerms {
 	@Parameter(names = "-i", description = "Ignore old journals (PhysRevSeriesI and PhysRev)")
 	private boolean ignoreOldJournals = false;
 
+	@Parameter(names = "-threads", description = "Number of threads for counting terms and calculating frequencies")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	private File logFile;
 
 	public static final void main(String[] args) {
@@ -66,47 +72,86 @@ public class DetectJournalTerms {
 		}
 	}
 
-	private Map<String,Boolean> terms;
-	private Map<String,Integer> journalSizes;
-	private Map<String,Map<String,Integer>> freqMap;
-	private Map<String,Double> freqMax;
-	private Map<String,Double> freqMin;
+	// Terms are identified by their position in the term list:
+	private List<String> terms;
+	private StringIntMap termIds;
+	private List<String> journals;
+	private StringIntMap journalIds;
+	private int[] journalSizes;
+	// Term counts per journal (rows) and term (columns):
+	private List<int[]> journalCounts;
+	private double[] freqMax;
+	private double[] freqMin;
+
+	private static final int BATCH_SIZE = 1000;
 
 	public DetectJournalTerms() {
 	}
 
-	public void run() throws IOException {
+	public void run() throws Exception {
 		init();
 
 		loadTerms();
 
-		int t = 0;
-		log("Extracting terms from input file: " + inputFile);
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-		String line;
-		while ((line = reader.readLine()) != null) {
-			t++;
-			logProgress(t);
-			DataEntry d = new DataEntry(line);
-			recordNgrams(d);
-		}
-		reader.close();
-		log("Total number of documents: " + t);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			int t = 0;
+			log("Extracting terms from input file with " + threads + " threads: " + inputFile);
+			// Batches are counted in parallel, also for the same journal; only adding the counts of
+			// a batch locks the journal's row. The number of pending batches is limited:
+			LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+			List<List<DataEntry>> batches = new ArrayList<List<DataEntry>>();
+			DataEntryReader reader = DataEntryReader.open(inputFile);
+			DataEntry d;
+			while ((d = reader.read()) != null) {
+				t++;
+				logProgress(t);
+				String journal = PrepareApsData.getJournalFromDoi(d.getId());
+				int j = journalIds.get(journal, -1);
+				if (j == -1) {
+					j = journals.size();
+					journalIds.put(journal, j);
+					journals.add(journal);
+					journalCounts.add(new int[terms.size()]);
+					batches.add(new ArrayList<DataEntry>());
+					if (j == journalSizes.length) journalSizes = Arrays.copyOf(journalSizes, j * 2);
+				}
+				journalSizes[j]++;
+				batches.get(j).add(d);
+				if (batches.get(j).size() == BATCH_SIZE) {
+					pending.add(executor.submit(new BatchCounter(batches.get(j), journalCounts.get(j))));
+					batches.set(j, new ArrayList<DataEntry>());
+				}
+				if (pending.size() >= 2 * threads) {
+					pending.removeFirst().get();
+				}
+			}
+			reader.close();
+			for (int j = 0 ; j < journals.size() ; j++) {
+				pending.add(executor.submit(new BatchCounter(batches.get(j), journalCounts.get(j))));
+			}
+			while (!pending.isEmpty()) {
+				pending.removeFirst().get();
+			}
+			log("Total number of documents: " + t);
 
-		calculateMinMax();
+			calculateMinMax(executor);
+		} finally {
+			executor.shutdownNow();
+		}
 
 		log("Writing output...");
-		t = 0;
+		int t = 0;
 		File csvFile = new File(MemeUtils.getOutputDataDir(), getOutputFileName() + ".csv");
 		Writer w = new BufferedWriter(new FileWriter(csvFile));
 		CsvListWriter csvWriter = new CsvListWriter(w, MemeUtils.getCsvPreference());
 		csvWriter.write("TERM", "MAX-ABS-DIFF", "MAX-REL-DIFF");
-		for (String term : terms.keySet()) {
+		for (int i = 0 ; i < terms.size() ; i++) {
 			logProgress(t);
 			t++;
-			double absFreqDiff = freqMax.get(term) - freqMin.get(term);
-			double relFreqDiff = freqMax.get(term) / freqMin.get(term);
-			csvWriter.write(term, absFreqDiff, relFreqDiff);
+			double absFreqDiff = freqMax[i] - freqMin[i];
+			double relFreqDiff = freqMax[i] / freqMin[i];
+			csvWriter.write(terms.get(i), absFreqDiff, relFreqDiff);
 		}
 		csvWriter.close();
 		log("Finished");
@@ -119,11 +164,12 @@ public class DetectJournalTerms {
 		logFile = new File(MemeUtils.getLogDir(), getOutputFileName() + ".log");
 		log("==========");
 		
-		terms = new HashMap<String, Boolean>();
-		journalSizes = new HashMap<String, Integer>();
-		freqMap = new HashMap<String, Map<String,Integer>>();
-		freqMax = new HashMap<String, Double>();
-		freqMin = new HashMap<String, Double>();
+		terms = new ArrayList<String>();
+		termIds = new StringIntMap();
+		journals = new ArrayList<String>();
+		journalIds = new StringIntMap();
+		journalSizes = new int[16];
+		journalCounts = new ArrayList<int[]>();
 	}
 
 	private void loadTerms() throws IOException {
@@ -138,34 +184,75 @@ public class DetectJournalTerms {
 			col = firstLine.indexOf(colIndexOrName);
 		}
 		List<String> l;
+		boolean hasEmptyTerm = false;
 		while ((l = csvReader.read()) != null) {
-			terms.put(l.get(col), true);
+			String term = l.get(col);
+			if (term == null) {
+				// Empty term cells are kept for the output, but such terms never occur:
+				if (!hasEmptyTerm) terms.add(null);
+				hasEmptyTerm = true;
+				continue;
+			}
+			if (termIds.containsKey(term)) continue;
+			termIds.put(term, terms.size());
+			terms.add(term);
 		}
 		csvReader.close();
 		log("Number of terms loaded: " + terms.size());
 	}
 
-	private void calculateMinMax() {
-		for (String journal : freqMap.keySet()) {
+	private void calculateMinMax(ExecutorService executor) throws Exception {
+		final List<Integer> selected = new ArrayList<Integer>();
+		for (int j = 0 ; j < journals.size() ; j++) {
+			String journal = journals.get(j);
 			if (ignoreOldJournals && journal.matches("PhysRevSeriesI|PhysRev")) continue;
-			int size = journalSizes.get(journal);
+			int size = journalSizes[j];
 			if (size < journalSizeThreshold) continue;
-			Map<String,Integer> termMap = freqMap.get(journal);
+			// Only journals with at least one term occurrence are compared:
+			if (!hasCounts(journalCounts.get(j))) continue;
 			log("Journal " + journal + " (" + size + ")");
-			for (String t : terms.keySet()) {
-				double freq = 1.0 / journalSizes.get(journal);  // Frequency should never be zero
-				if (termMap.containsKey(t)) {
-					freq = (double) termMap.get(t) / size;
-				}
-				if (!freqMin.containsKey(t) || freqMin.get(t) > freq) {
-					freqMin.put(t, freq);
-				}
-				if (!freqMax.containsKey(t) || freqMax.get(t) < freq) {
-					freqMax.put(t, freq);
+			selected.add(j);
+		}
+		if (selected.isEmpty() && !terms.isEmpty()) {
+			throw new RuntimeException("No journals to compare");
+		}
+		freqMin = new double[terms.size()];
+		freqMax = new double[terms.size()];
+		// The frequencies are calculated in parallel for blocks of terms:
+		int blockSize = terms.size() / threads + 1;
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int blockStart = 0 ; blockStart < terms.size() ; blockStart += blockSize) {
+			final int start = blockStart;
+			final int end = Math.min(blockStart + blockSize, terms.size());
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					Arrays.fill(freqMin, start, end, Double.POSITIVE_INFINITY);
+					Arrays.fill(freqMax, start, end, Double.NEGATIVE_INFINITY);
+					for (int j : selected) {
+						int[] counts = journalCounts.get(j);
+						double size = journalSizes[j];
+						double zeroFreq = 1.0 / size;  // Frequency should never be zero
+						for (int i = start ; i < end ; i++) {
+							double freq = zeroFreq;
+							if (counts[i] > 0) freq = counts[i] / size;
+							if (freqMin[i] > freq) freqMin[i] = freq;
+							if (freqMax[i] < freq) freqMax[i] = freq;
+						}
+					}
 				}
-			}
-			
+			}));
+		}
+		for (Future<?> f : futures) {
+			f.get();
+		}
+	}
+
+	private static boolean hasCounts(int[] counts) {
+		for (int c : counts) {
+			if (c > 0) return true;
 		}
+		return false;
 	}
 
 	private String getOutputFileName() {
@@ -174,37 +261,51 @@ public class DetectJournalTerms {
 		return filename;
 	}
 
-	private void recordNgrams(DataEntry d) {
-		Map<String,Boolean> processed = new HashMap<String,Boolean>();
-		String journal = PrepareApsData.getJournalFromDoi(d.getId());
-		if (journalSizes.containsKey(journal)) {
-			journalSizes.put(journal, journalSizes.get(journal) + 1);
-		} else {
-			journalSizes.put(journal, 1);
+	private class BatchCounter implements Runnable {
+
+		private List<DataEntry> entries;
+		private int[] counts;
+
+		BatchCounter(List<DataEntry> entries, int[] counts) {
+			this.entries = entries;
+			this.counts = counts;
 		}
-		String[] tokens = d.getText().trim().split(" ");
-		for (int p1 = 0 ; p1 < tokens.length ; p1++) {
-			String term = "";
-			for (int p2 = p1 ; p2 < tokens.length ; p2++) {
-				term += " " + tokens[p2];
-				term = term.trim();
-				if (!terms.containsKey(term)) break;
-				if (processed.containsKey(term)) continue;
-				processed.put(term, true);
-				Map<String,Integer> termMap;
-				if (freqMap.containsKey(journal)) {
-					termMap = freqMap.get(journal);
-				} else {
-					termMap = new HashMap<String,Integer>();
-					freqMap.put(journal, termMap);
+
+		@Override
+		public void run() {
+			int[] found = new int[16];
+			// Terms found in the documents of the batch (once per document):
+			int[] batchFound = new int[16];
+			int b = 0;
+			for (DataEntry d : entries) {
+				int n = 0;
+				String[] tokens = d.getTextTokens();
+				for (int p1 = 0 ; p1 < tokens.length ; p1++) {
+					String term = "";
+					for (int p2 = p1 ; p2 < tokens.length ; p2++) {
+						term += " " + tokens[p2];
+						term = term.trim();
+						int id = termIds.get(term, -1);
+						if (id == -1) break;
+						if (n == found.length) found = Arrays.copyOf(found, n * 2);
+						found[n++] = id;
+					}
+				}
+				// Each term is counted once per document:
+				Arrays.sort(found, 0, n);
+				for (int i = 0 ; i < n ; i++) {
+					if (i > 0 && found[i] == found[i-1]) continue;
+					if (b == batchFound.length) batchFound = Arrays.copyOf(batchFound, b * 2);
+					batchFound[b++] = found[i];
 				}
-				if (termMap.containsKey(term)) {
-					termMap.put(term, termMap.get(term) + 1);
-				} else {
-					termMap.put(term, 1);
+			}
+			synchronized (counts) {
+				for (int i = 0 ; i < b ; i++) {
+					counts[batchFound[i]]++;
 				}
 			}
 		}
+
 	}
 
 	private void logProgress(int p) {
@@ -8,9 +8,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.supercsv.io.CsvListReader;
 import org.supercsv.io.CsvListWriter;
@@ -38,6 +42,9 @@ public class DetectTrendTerms {
 	@Parameter(names = "-c", description = "Index or name of term file column")
 	private String colIndexOrName = "TERM";
 
+	@Parameter(names = "-threads", description = "Number of threads for counting terms in periods")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	private File logFile;
 
 	public static final void main(String[] args) {
@@ -63,25 +70,23 @@ public class DetectTrendTerms {
 		}
 	}
 
-	private Map<String,Boolean> terms;
-	private Map<String,Double> absFreqCh;
-	private Map<String,Double> relFreqCh;
-	private Map<String,Integer> thisCount;
-	private Map<String,Integer> lastCount;
-
-	private int docsInPeriodCount;
+	// Terms are identified by their position in the term list:
+	private List<String> terms;
+	private StringIntMap termIds;
+	private double[] absFreqCh;
+	private double[] relFreqCh;
+	private boolean hasChanges;
+	private int[] lastCount;
 
 	public DetectTrendTerms() {
 	}
 
-	public void run() throws IOException {
+	public void run() throws Exception {
 		init();
 		log("==========");
-		
-		terms = new HashMap<String, Boolean>();
-		absFreqCh = new HashMap<String,Double>();
-		relFreqCh = new HashMap<String,Double>();
-		thisCount = new HashMap<String,Integer>();
+
+		terms = new ArrayList<String>();
+		termIds = new StringIntMap();
 
 		log("Loading terms from " + termFile + "...");
 		BufferedReader r = new BufferedReader(new FileReader(termFile));
@@ -94,29 +99,57 @@ public class DetectTrendTerms {
 			col = firstLine.indexOf(colIndexOrName);
 		}
 		List<String> l;
+		boolean hasEmptyTerm = false;
 		while ((l = csvReader.read()) != null) {
-			terms.put(l.get(col), true);
+			String term = l.get(col);
+			if (term == null) {
+				// Empty term cells are kept for the output, but such terms never occur:
+				if (!hasEmptyTerm) terms.add(null);
+				hasEmptyTerm = true;
+				continue;
+			}
+			if (termIds.containsKey(term)) continue;
+			termIds.put(term, terms.size());
+			terms.add(term);
 		}
 		csvReader.close();
 		log("Number of terms loaded: " + terms.size());
+		absFreqCh = new double[terms.size()];
+		relFreqCh = new double[terms.size()];
+		hasChanges = false;
 
 		int t = 0;
-		docsInPeriodCount = 0;
-		log("Extracting terms from input file: " + inputFile);
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-		String line;
-		while ((line = reader.readLine()) != null) {
-			if (docsInPeriodCount >= docsPerPeriod) {
-				finishPeriod();
+		log("Extracting terms from input file with " + threads + " threads: " + inputFile);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			// Periods are counted in parallel, and the changes are calculated in their order:
+			LinkedList<Future<int[]>> pending = new LinkedList<Future<int[]>>();
+			LinkedList<Integer> pendingSizes = new LinkedList<Integer>();
+			DataEntryReader reader = DataEntryReader.open(inputFile);
+			List<DataEntry> period = new ArrayList<DataEntry>();
+			DataEntry d;
+			while ((d = reader.read()) != null) {
+				if (period.size() >= docsPerPeriod) {
+					pending.add(executor.submit(new PeriodCounter(period)));
+					pendingSizes.add(period.size());
+					period = new ArrayList<DataEntry>();
+				}
+				t++;
+				logProgress(t);
+				period.add(d);
+				if (pending.size() > threads) {
+					finishPeriod(pending.removeFirst().get(), pendingSizes.removeFirst());
+				}
 			}
-			t++;
-			logProgress(t);
-			DataEntry d = new DataEntry(line);
-			recordNgrams(d);
-			docsInPeriodCount++;
+			reader.close();
+			pending.add(executor.submit(new PeriodCounter(period)));
+			pendingSizes.add(period.size());
+			while (!pending.isEmpty()) {
+				finishPeriod(pending.removeFirst().get(), pendingSizes.removeFirst());
+			}
+		} finally {
+			executor.shutdownNow();
 		}
-		finishPeriod();
-		reader.close();
 		log("Total number of documents: " + t);
 
 		log("Writing output...");
@@ -125,10 +158,14 @@ public class DetectTrendTerms {
 		Writer w = new BufferedWriter(new FileWriter(csvFile));
 		CsvListWriter csvWriter = new CsvListWriter(w, MemeUtils.getCsvPreference());
 		csvWriter.write("TERM", "MAX-ABS-CHANGE", "MAX-REL-CHANGE");
-		for (String term : terms.keySet()) {
+		for (int i = 0 ; i < terms.size() ; i++) {
 			logProgress(t);
 			t++;
-			csvWriter.write(term, absFreqCh.get(term), relFreqCh.get(term));
+			if (hasChanges) {
+				csvWriter.write(terms.get(i), absFreqCh[i], relFreqCh[i]);
+			} else {
+				csvWriter.write(terms.get(i), null, null);
+			}
 		}
 		csvWriter.close();
 		log("Finished");
@@ -141,29 +178,26 @@ public class DetectTrendTerms {
 		logFile = new File(MemeUtils.getLogDir(), getOutputFileName() + ".log");
 	}
 
-	private void finishPeriod() {
+	private void finishPeriod(int[] thisCount, int docsInPeriodCount) {
 		if (lastCount != null) {
-			for (String t : terms.keySet()) {
-				double lc = 0;
-				if (lastCount.containsKey(t)) lc = lastCount.get(t);
+			for (int i = 0 ; i < terms.size() ; i++) {
+				double lc = lastCount[i];
 				double rlc = lc / docsInPeriodCount;
-				double tc = 0;
-				if (thisCount.containsKey(t)) tc = thisCount.get(t);
+				double tc = thisCount[i];
 				double rtc = (double) tc / docsInPeriodCount;
 				double a = rtc - rlc;
-				if (!absFreqCh.containsKey(t) || absFreqCh.get(t) < a) {
-					absFreqCh.put(t, a);
+				if (!hasChanges || absFreqCh[i] < a) {
+					absFreqCh[i] = a;
 				}
 				double r = 0;
 				if (rlc != 0) r = rtc / rlc;
-				if (!relFreqCh.containsKey(t) || relFreqCh.get(t) < r) {
-					relFreqCh.put(t, r);
+				if (!hasChanges || relFreqCh[i] < r) {
+					relFreqCh[i] = r;
 				}
 			}
+			hasChanges = true;
 		}
 		lastCount = thisCount;
-		thisCount = new HashMap<String,Integer>();
-		docsInPeriodCount = 0;
 	}
 
 	private String getOutputFileName() {
@@ -173,24 +207,41 @@ public class DetectTrendTerms {
 		return filename;
 	}
 
-	private void recordNgrams(DataEntry d) {
-		Map<String,Boolean> processed = new HashMap<String,Boolean>();
-		String[] tokens = d.getText().trim().split(" ");
-		for (int p1 = 0 ; p1 < tokens.length ; p1++) {
-			String term = "";
-			for (int p2 = p1 ; p2 < tokens.length ; p2++) {
-				term += " " + tokens[p2];
-				term = term.trim();
-				if (!terms.containsKey(term)) break;
-				if (processed.containsKey(term)) continue;
-				processed.put(term, true);
-				if (thisCount.containsKey(term)) {
-					thisCount.put(term, thisCount.get(term) + 1);
-				} else {
-					thisCount.put(term, 1);
+	private class PeriodCounter implements Callable<int[]> {
+
+		private List<DataEntry> entries;
+
+		PeriodCounter(List<DataEntry> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public int[] call() {
+			int[] count = new int[terms.size()];
+			int[] found = new int[16];
+			for (DataEntry d : entries) {
+				int n = 0;
+				String[] tokens = d.getTextTokens();
+				for (int p1 = 0 ; p1 < tokens.length ; p1++) {
+					String term = "";
+					for (int p2 = p1 ; p2 < tokens.length ; p2++) {
+						term += " " + tokens[p2];
+						term = term.trim();
+						int id = termIds.get(term, -1);
+						if (id == -1) break;
+						if (n == found.length) found = Arrays.copyOf(found, n * 2);
+						found[n++] = id;
+					}
+				}
+				// Each term is counted once per document:
+				Arrays.sort(found, 0, n);
+				for (int i = 0 ; i < n ; i++) {
+					if (i == 0 || found[i] != found[i-1]) count[found[i]]++;
 				}
 			}
+			return count;
 		}
+
 	}
 
 	private void logProgress(int p) {
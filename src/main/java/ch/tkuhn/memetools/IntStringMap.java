@@ -1,75 +1,202 @@
 package ch.tkuhn.memetools;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+// Map from non-negative int keys to strings. The strings are stored as UTF-8 bytes in an append-only
+// store outside of the Java heap, which grows segment by segment: direct buffers, or memory-mapped
+// segments of a file if one is given. Values can only be retrieved after the map is frozen.
+// File-based maps write an index file when frozen and can be reopened with open(File).
 public class IntStringMap {
 
-	private static final int MAX_POS = 2000000000;
+	// Segments double in size from MIN_SEGMENT_SIZE up to SEGMENT_SIZE, so small maps stay small:
+	private static final int MIN_SEGMENT_SIZE = 1 << 20;
+	private static final int SEGMENT_SIZE = 1 << 28;
+	private static final int GROWTH_STEPS = Integer.numberOfTrailingZeros(SEGMENT_SIZE / MIN_SEGMENT_SIZE);
 
-	private List<String> data = new ArrayList<String>();
+	// Marks index files of the current format:
+	private static final int INDEX_FORMAT = 0x49534d32;
+
+	private List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private ByteBuffer segment;
+	// Start positions plus one (zero for keys without value) and lengths in bytes:
 	private long[] startPos;
 	private int[] length;
 
-	private StringBuilder sb = new StringBuilder(Integer.MAX_VALUE);
+	private File file;
+	private RandomAccessFile raf;
 
 	private boolean frozen = false;
 
-	public IntStringMap(int size) {
-		startPos = new long[size];
-		length = new int[size];
-		sb.append(" ");
+	public IntStringMap(int initialSize) {
+		startPos = new long[initialSize];
+		length = new int[initialSize];
+	}
+
+	public IntStringMap(int initialSize, File file) throws IOException {
+		this(initialSize);
+		this.file = file;
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+	}
+
+	public static IntStringMap open(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(file)), 64*1024));
+		if (in.readInt() != INDEX_FORMAT) {
+			in.close();
+			throw new RuntimeException("Unknown index format: " + getIndexFile(file));
+		}
+		IntStringMap map = new IntStringMap(in.readInt());
+		long used = in.readLong();
+		int count = in.readInt();
+		for (int i = 0 ; i < count ; i++) {
+			int key = in.readInt();
+			map.startPos[key] = in.readLong();
+			map.length[key] = in.readInt();
+		}
+		in.close();
+		map.segments = mapSegments(file, used);
+		map.frozen = true;
+		return map;
+	}
+
+	// Returns true if the file and an index file of the current format exist
+	public static boolean exists(File file) throws IOException {
+		if (!file.exists() || !getIndexFile(file).exists()) return false;
+		DataInputStream in = new DataInputStream(new FileInputStream(getIndexFile(file)));
+		try {
+			return in.readInt() == INDEX_FORMAT;
+		} catch (IOException ex) {
+			return false;
+		} finally {
+			in.close();
+		}
 	}
 
-	public void put(int key, String value) {
+	public void put(int key, String value) throws IOException {
 		if (frozen) {
 			throw new RuntimeException("Frozen");
 		}
-		int l = value.length();
-		if (sb.length() + l >= MAX_POS) {
-			data.add(sb.toString());
-			sb = new StringBuilder(Integer.MAX_VALUE);
+		byte[] bytes = value.getBytes(MemeUtils.UTF8);
+		if (bytes.length > SEGMENT_SIZE) {
+			throw new RuntimeException("Value too long: " + bytes.length + " bytes");
 		}
-		long s = (long) MAX_POS*data.size() + sb.length();
-		sb.append(value);
-		if (s < 0) {
-			throw new RuntimeException("Negative start position");
+		// Segments that are too small for the value are skipped:
+		while (segment == null || segment.remaining() < bytes.length) {
+			addSegment();
 		}
-		if (l < 0) {
-			throw new RuntimeException("Negative length");
+		if (key >= startPos.length) {
+			int l = Math.max(key + 1, startPos.length * 2);
+			startPos = Arrays.copyOf(startPos, l);
+			length = Arrays.copyOf(length, l);
 		}
-		startPos[key] = s;
-		length[key] = l;
+		long s = getSegmentStart(segments.size() - 1) + segment.position();
+		segment.put(bytes);
+		startPos[key] = s + 1;
+		length[key] = bytes.length;
+	}
+
+	private void addSegment() throws IOException {
+		int k = segments.size();
+		if (raf == null) {
+			segment = ByteBuffer.allocateDirect(getSegmentSize(k));
+		} else {
+			segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, getSegmentStart(k), getSegmentSize(k));
+		}
+		segments.add(segment);
 	}
 
 	public String get(int key) {
 		if (!frozen) {
 			throw new RuntimeException("Not yet frozen");
 		}
+		if (key >= startPos.length) return null;
 		long s = startPos[key];
-		if (s < 0) {
-			throw new RuntimeException("Negative start position");
-		}
 		if (s == 0) return null;
-		int l = length[key];
-		if (l < 0) {
-			throw new RuntimeException("Negative length");
+		s--;
+		int k = getSegmentIndex(s);
+		// Duplicates allow for concurrent reading:
+		ByteBuffer b = segments.get(k).duplicate();
+		b.position((int) (s - getSegmentStart(k)));
+		byte[] bytes = new byte[length[key]];
+		b.get(bytes);
+		return new String(bytes, MemeUtils.UTF8);
+	}
+
+	public void freeze() throws IOException {
+		frozen = true;
+		if (raf == null) return;
+		long used = 0;
+		if (segment != null) {
+			used = getSegmentStart(segments.size() - 1) + segment.position();
 		}
-		int subpos = (int) (s % MAX_POS);
-		int subposEnd = subpos + l;
-		if (subpos < 0) {
-			throw new RuntimeException("Negative sub-position start");
+		int count = 0;
+		for (long s : startPos) {
+			if (s != 0) count++;
 		}
-		if (subposEnd < 0) {
-			throw new RuntimeException("Negative sub-position end");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(file)), 64*1024));
+		out.writeInt(INDEX_FORMAT);
+		out.writeInt(startPos.length);
+		out.writeLong(used);
+		out.writeInt(count);
+		for (int key = 0 ; key < startPos.length ; key++) {
+			if (startPos[key] == 0) continue;
+			out.writeInt(key);
+			out.writeLong(startPos[key]);
+			out.writeInt(length[key]);
 		}
-		return data.get((int) (s / MAX_POS)).substring(subpos, subposEnd);
+		out.close();
+		raf.close();
+		raf = null;
+		// The used part is mapped again read-only, as when the map is opened:
+		segment = null;
+		segments = mapSegments(file, used);
 	}
 
-	public void freeze() {
-		frozen = true;
-		data.add(sb.toString());
-		sb = null;
+	private static List<ByteBuffer> mapSegments(File file, long used) throws IOException {
+		List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		FileChannel channel = raf.getChannel();
+		for (int k = 0 ; getSegmentStart(k) < used ; k++) {
+			long p = getSegmentStart(k);
+			segments.add(channel.map(FileChannel.MapMode.READ_ONLY, p, Math.min(getSegmentSize(k), used - p)));
+		}
+		// Mappings stay valid after closing the file:
+		raf.close();
+		return segments;
+	}
+
+	private static int getSegmentSize(int k) {
+		if (k >= GROWTH_STEPS) return SEGMENT_SIZE;
+		return MIN_SEGMENT_SIZE << k;
+	}
+
+	private static long getSegmentStart(int k) {
+		if (k <= GROWTH_STEPS) return (long) MIN_SEGMENT_SIZE * ((1 << k) - 1);
+		return getSegmentStart(GROWTH_STEPS) + (long) SEGMENT_SIZE * (k - GROWTH_STEPS);
+	}
+
+	private static int getSegmentIndex(long pos) {
+		long growthEnd = getSegmentStart(GROWTH_STEPS);
+		if (pos >= growthEnd) return GROWTH_STEPS + (int) ((pos - growthEnd) / SEGMENT_SIZE);
+		// Segment k of the growing ones covers [MIN_SEGMENT_SIZE * (2^k - 1), MIN_SEGMENT_SIZE * (2^(k+1) - 1)):
+		return 31 - Integer.numberOfLeadingZeros((int) (pos / MIN_SEGMENT_SIZE) + 1);
+	}
+
+	private static File getIndexFile(File file) {
+		return new File(file.getPath() + ".index");
 	}
 
 }
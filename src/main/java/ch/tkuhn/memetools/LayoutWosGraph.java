@@ -14,6 +14,7 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -44,6 +45,9 @@ public class LayoutWosGraph {
 	@Parameter(names = "-d", description = "The directory to read the raw data from")
 	private File rawWosDataDir;
 
+	@Parameter(names = "-g", description = "Citation graph file to read the connections from (instead of the raw data)")
+	private File graphFile;
+
 	@Parameter(names = "-v", description = "Write detailed log")
 	private boolean verbose = false;
 
@@ -75,13 +79,20 @@ public class LayoutWosGraph {
 
 	private static String wosFolder = "wos";
 
+	// Points are indexed by the dense indexes of the WoS IDs:
+	private WosIdDictionary idDictionary;
 	private float[] pointsX;
 	private float[] pointsY;
 	private float[] morePointsX;
 	private float[] morePointsY;
+	// Base points from the input file, which are added once all IDs are known:
+	private List<String> baseIds;
+	private float[] baseX;
+	private float[] baseY;
 	private int missingPoints;
 	private int additionalPoints;
 
+	private CitationGraph graph;
 	private Random random;
 	private BufferedWriter writer;
 	private Set<FileVisitOption> walkFileTreeOptions;
@@ -93,6 +104,8 @@ public class LayoutWosGraph {
 		try {
 			init();
 			readBasePoints();
+			collectIds();
+			addBasePoints();
 			retrieveMorePoints(10);
 			retrieveMorePoints(8);
 			retrieveMorePoints(6);
@@ -115,8 +128,10 @@ public class LayoutWosGraph {
 		log("==========");
 		log("Starting...");
 
-		morePointsX = new float[150000000];
-		morePointsY = new float[150000000];
+		idDictionary = new WosIdDictionary();
+		baseIds = new ArrayList<String>();
+		baseX = new float[1024];
+		baseY = new float[1024];
 
 		if (outputFile == null) {
 			outputFile = new File(MemeUtils.getOutputDataDir(), getOutputFileName() + ".csv");
@@ -127,6 +142,10 @@ public class LayoutWosGraph {
 
 		writer = new BufferedWriter(new FileWriter(outputFile));
 
+		if (graphFile != null) {
+			graph = CitationGraph.open(graphFile);
+		}
+
 		walkFileTreeOptions = new HashSet<FileVisitOption>();
 		walkFileTreeOptions.add(FileVisitOption.FOLLOW_LINKS);
 
@@ -139,8 +158,15 @@ public class LayoutWosGraph {
 
 			@Override
 			public void handleNode(String nodeId, Pair<Float,Float> coords, Color color, Map<String,String> atts) throws Exception {
-				addPosition(nodeId, coords.getLeft() + offset, coords.getRight() + offset);
-				
+				int i = baseIds.size();
+				if (i == baseX.length) {
+					baseX = Arrays.copyOf(baseX, i * 2);
+					baseY = Arrays.copyOf(baseY, i * 2);
+				}
+				baseIds.add(nodeId);
+				baseX[i] = coords.getLeft() + offset;
+				baseY[i] = coords.getRight() + offset;
+				idDictionary.add(Integer.parseInt(nodeId));
 			}
 
 			@Override
@@ -148,25 +174,73 @@ public class LayoutWosGraph {
 
 		});
 		gi.run();
-		pointsX = morePointsX;
-		pointsY = morePointsY;
-		morePointsX = new float[150000000];
-		morePointsY = new float[150000000];
 	}
 
-	private void retrieveMorePoints(final int minConnections) throws IOException {
-		log("Retrieving points from " + rawWosDataDir + " with at least " + minConnections + " connections ...");
-		missingPoints = 0;
-		additionalPoints = 0;
+	private void collectIds() throws IOException {
+		if (graph != null) {
+			// Nodes of the graph, in the same order:
+			idDictionary = graph.getIdDictionary();
+			log("Number of IDs in citation graph: " + idDictionary.size());
+			return;
+		}
+		log("Collecting IDs from " + rawWosDataDir + " ...");
 		Files.walkFileTree(rawWosDataDir.toPath(), walkFileTreeOptions, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
 			@Override
 			public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
 				if (path.toString().endsWith(".txt")) {
-					retrieveMorePoints(path, minConnections);
+					collectIds(path);
 				}
 				return FileVisitResult.CONTINUE;
 			}
 		});
+		idDictionary.freeze();
+		log("Number of IDs: " + idDictionary.size());
+	}
+
+	private void collectIds(Path path) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(path.toFile()), 64*1024);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			WosEntry entry = new WosEntry(line);
+			if (!entry.isValid()) continue;
+			idDictionary.add(entry.getIdInt());
+		}
+		reader.close();
+	}
+
+	private void addBasePoints() throws IOException {
+		morePointsX = new float[idDictionary.size()];
+		morePointsY = new float[idDictionary.size()];
+		for (int i = 0 ; i < baseIds.size() ; i++) {
+			addPosition(baseIds.get(i), baseX[i], baseY[i]);
+		}
+		baseIds = null;
+		baseX = null;
+		baseY = null;
+		pointsX = morePointsX;
+		pointsY = morePointsY;
+		morePointsX = new float[idDictionary.size()];
+		morePointsY = new float[idDictionary.size()];
+	}
+
+	private void retrieveMorePoints(final int minConnections) throws IOException {
+		missingPoints = 0;
+		additionalPoints = 0;
+		if (graph == null) {
+			log("Retrieving points from " + rawWosDataDir + " with at least " + minConnections + " connections ...");
+			Files.walkFileTree(rawWosDataDir.toPath(), walkFileTreeOptions, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+					if (path.toString().endsWith(".txt")) {
+						retrieveMorePoints(path, minConnections);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} else {
+			log("Retrieving points from " + graphFile + " with at least " + minConnections + " connections ...");
+			retrieveMorePointsFromGraph(minConnections);
+		}
 		log("Additional points found: " + additionalPoints);
 		log("Points still missing: " + missingPoints);
 		for (int i = 0 ; i < morePointsX.length ; i++) {
@@ -193,72 +267,95 @@ public class LayoutWosGraph {
 				errors++;
 				continue;
 			}
-			if (pointsX[entry.getIdInt()] != 0) continue;
-			if (morePointsX[entry.getIdInt()] != 0) {
+			int index = idDictionary.getIndex(entry.getIdInt());
+			if (pointsX[index] != 0) continue;
+			if (morePointsX[index] != 0) {
 				logDetail("Duplicate id: " + entry.getId());
 				errors++;
 				continue;
 			}
+			// Neighbors are identified by their WoS IDs, whose order determines the choice among points
+			// with about the same distance:
 			Set<Integer> neighbors = new HashSet<Integer>();
 			String neighborIds = entry.getRef() + entry.getCit();
 			while (!neighborIds.isEmpty()) {
 				String nId = neighborIds.substring(0, 9);
 				int nIdInt = Integer.parseInt(nId);
 				neighborIds = neighborIds.substring(9);
-				if (pointsX[nIdInt] != 0) {
+				int n = idDictionary.getIndex(nIdInt);
+				if (n != -1 && pointsX[n] != 0) {
 					neighbors.add(nIdInt);
 				}
 			}
-			if (neighbors.size() >= minConnections) {
-				double sumX = 0;
-				double sumY = 0;
-				for (int n : neighbors) {
-					sumX += pointsX[n];
-					sumY += pointsY[n];
-				}
-				final double avgAllX = sumX / neighbors.size();
-				final double avgAllY = sumY / neighbors.size();
-				double avgX = avgAllX;
-				double avgY = avgAllY;
-				if (neighbors.size() > 2) {
-					// get the 3 points closest to average:
-					List<Integer> nlist = new ArrayList<Integer>(neighbors);
-					Collections.sort(nlist, new Comparator<Integer>() {
-						@Override
-						public int compare(Integer o1, Integer o2) {
-							double xdiff1 = pointsX[o1] - avgAllX;
-							double ydiff1 = pointsY[o1] - avgAllY;
-							double dist1 = xdiff1*xdiff1 + ydiff1*ydiff1;
-							double xdiff2 = pointsX[o2] - avgAllX;
-							double ydiff2 = pointsY[o2] - avgAllY;
-							double dist2 = xdiff2*xdiff2 + ydiff2*ydiff2;
-							return (int) (dist1 - dist2);
-						}
-					});
-					neighbors.clear();
-					for (int i = 0 ; i < 3 ; i++) {
-						neighbors.add(nlist.get(i));
-					}
-					// recalculate average:
-					sumX = 0;
-					sumY = 0;
-					for (int n : neighbors) {
-						sumX += pointsX[n];
-						sumY += pointsY[n];
+			placePoint(entry, neighbors, minConnections);
+		}
+		reader.close();
+		log("Number of errors: " + errors);
+	}
+
+	private void retrieveMorePointsFromGraph(int minConnections) throws IOException {
+		for (int i = 0 ; i < graph.getNodeCount() ; i++) {
+			if (pointsX[i] != 0) continue;
+			Set<Integer> neighbors = new HashSet<Integer>();
+			for (int n : graph.getReferences(i)) {
+				if (pointsX[n] != 0) neighbors.add(graph.getId(n));
+			}
+			for (int n : graph.getCitations(i)) {
+				if (pointsX[n] != 0) neighbors.add(graph.getId(n));
+			}
+			placePoint(idDictionary.getIdString(i), neighbors, minConnections);
+		}
+	}
+
+	// Places the given entry or ID near its neighbors (given as WoS IDs), if there are enough of them
+	private void placePoint(Object obj, Set<Integer> neighbors, int minConnections) throws IOException {
+		if (neighbors.size() >= minConnections) {
+			double sumX = 0;
+			double sumY = 0;
+			for (int n : neighbors) {
+				sumX += getX(n);
+				sumY += getY(n);
+			}
+			final double avgAllX = sumX / neighbors.size();
+			final double avgAllY = sumY / neighbors.size();
+			double avgX = avgAllX;
+			double avgY = avgAllY;
+			if (neighbors.size() > 2) {
+				// get the 3 points closest to average:
+				List<Integer> nlist = new ArrayList<Integer>(neighbors);
+				Collections.sort(nlist, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer o1, Integer o2) {
+						double xdiff1 = getX(o1) - avgAllX;
+						double ydiff1 = getY(o1) - avgAllY;
+						double dist1 = xdiff1*xdiff1 + ydiff1*ydiff1;
+						double xdiff2 = getX(o2) - avgAllX;
+						double ydiff2 = getY(o2) - avgAllY;
+						double dist2 = xdiff2*xdiff2 + ydiff2*ydiff2;
+						return (int) (dist1 - dist2);
 					}
-					avgX = sumX / neighbors.size();
-					avgY = sumY / neighbors.size();
+				});
+				neighbors.clear();
+				for (int i = 0 ; i < 3 ; i++) {
+					neighbors.add(nlist.get(i));
 				}
-				float posX = (float) (avgX + random.nextGaussian() * noise);
-				float posY = (float) (avgY + random.nextGaussian() * noise);
-				addPosition(entry, posX, posY);
-				additionalPoints++;
-			} else {
-				missingPoints++;
+				// recalculate average:
+				sumX = 0;
+				sumY = 0;
+				for (int n : neighbors) {
+					sumX += getX(n);
+					sumY += getY(n);
+				}
+				avgX = sumX / neighbors.size();
+				avgY = sumY / neighbors.size();
 			}
+			float posX = (float) (avgX + random.nextGaussian() * noise);
+			float posY = (float) (avgY + random.nextGaussian() * noise);
+			addPosition(obj, posX, posY);
+			additionalPoints++;
+		} else {
+			missingPoints++;
 		}
-		reader.close();
-		log("Number of errors: " + errors);
 	}
 
 	private void addPosition(Object obj, float posX, float posY) throws IOException {
@@ -271,11 +368,25 @@ public class LayoutWosGraph {
 			id = obj.toString();
 			idInt = Integer.parseInt(id);
 		}
-		morePointsX[idInt] = posX;
-		morePointsY[idInt] = posY;
+		int index = idDictionary.getIndex(idInt);
+		// Base points that are not in the citation graph are only written to the output:
+		if (index != -1) {
+			morePointsX[index] = posX;
+			morePointsY[index] = posY;
+		}
 		writer.write(id + "," + posX + "," + posY + "\n");
 	}
 
+	// Coordinates of the given WoS ID (which has to be in the dictionary):
+
+	private float getX(int id) {
+		return pointsX[idDictionary.getIndex(id)];
+	}
+
+	private float getY(int id) {
+		return pointsY[idDictionary.getIndex(id)];
+	}
+
 	private String getOutputFileName() {
 		return "la-" + inputFile.getName().replaceAll("\\..*$", "");
 	}
@@ -0,0 +1,123 @@
+package ch.tkuhn.memetools;
+
+import java.util.Arrays;
+
+// Open-addressing hash map from long keys to int values, without boxing. Long.MIN_VALUE cannot be
+// used as a key.
+public class LongIntMap {
+
+	private static final long NO_KEY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	public LongIntMap() {
+		this(16);
+	}
+
+	public LongIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+		keys = new long[capacity];
+		Arrays.fill(keys, NO_KEY);
+		values = new int[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(long key) {
+		return keys[findSlot(key)] != NO_KEY;
+	}
+
+	public int get(long key, int defaultValue) {
+		int slot = findSlot(key);
+		if (keys[slot] == NO_KEY) return defaultValue;
+		return values[slot];
+	}
+
+	public void put(long key, int value) {
+		int slot = findSlot(key);
+		if (keys[slot] == NO_KEY) {
+			slot = insert(key);
+		}
+		values[slot] = value;
+	}
+
+	public int increment(long key, int delta) {
+		int slot = findSlot(key);
+		if (keys[slot] == NO_KEY) {
+			slot = insert(key);
+			values[slot] = 0;
+		}
+		values[slot] += delta;
+		return values[slot];
+	}
+
+	public void clear() {
+		Arrays.fill(keys, NO_KEY);
+		size = 0;
+	}
+
+	// Iteration over the entries: start with nextSlot(-1) and continue until -1 is returned.
+	public int nextSlot(int slot) {
+		for (int s = slot + 1 ; s < keys.length ; s++) {
+			if (keys[s] != NO_KEY) return s;
+		}
+		return -1;
+	}
+
+	public long getKeyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int getValueAt(int slot) {
+		return values[slot];
+	}
+
+	private int findSlot(long key) {
+		if (key == NO_KEY) {
+			throw new IllegalArgumentException("Invalid key: " + key);
+		}
+		int slot = hash(key) & mask;
+		while (keys[slot] != NO_KEY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int insert(long key) {
+		if ((size + 1) * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		int slot = findSlot(key);
+		keys[slot] = key;
+		size++;
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[capacity];
+		Arrays.fill(keys, NO_KEY);
+		values = new int[capacity];
+		mask = capacity - 1;
+		for (int i = 0 ; i < oldKeys.length ; i++) {
+			if (oldKeys[i] == NO_KEY) continue;
+			int slot = findSlot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9e3779b97f4a7c15l;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
@@ -0,0 +1,142 @@
+package ch.tkuhn.memetools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// Reads a prepared data file through memory-mapped chunks of whole lines, which are decoded and
+// split into entries by worker threads. In ordered mode, the entries are returned in the order of the file;
+// otherwise the chunks are returned as soon as they are ready.
+public class MappedDataEntryReader extends DataEntryReader {
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	// Start positions of the chunks, followed by the file size:
+	private long[] chunkBounds;
+	private int nextChunk;
+	private boolean ordered;
+
+	private ExecutorService executor;
+	private CompletionService<List<DataEntry>> completionService;
+	private LinkedList<Future<List<DataEntry>>> pending;
+	private int pendingCount;
+	private int maxPending;
+
+	private List<DataEntry> current = Collections.emptyList();
+	private int pos;
+
+	public MappedDataEntryReader(File file, int threads, boolean ordered) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		chunkBounds = MemeUtils.getLineChunkBounds(channel, MemeUtils.DEFAULT_CHUNK_SIZE);
+		nextChunk = 0;
+		this.ordered = ordered;
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			completionService = new ExecutorCompletionService<List<DataEntry>>(executor);
+			pending = new LinkedList<Future<List<DataEntry>>>();
+			maxPending = 2 * threads;
+		}
+	}
+
+	@Override
+	public DataEntry read() throws IOException {
+		while (pos == current.size()) {
+			current = readNextChunk();
+			pos = 0;
+			if (current == null) {
+				current = Collections.emptyList();
+				return null;
+			}
+		}
+		DataEntry d = current.get(pos);
+		current.set(pos, null);
+		pos++;
+		return d;
+	}
+
+	private List<DataEntry> readNextChunk() throws IOException {
+		if (executor == null) {
+			if (nextChunk == getChunkCount()) return null;
+			return MemeUtils.readEntries(takeChunk());
+		}
+		while (pendingCount < maxPending && nextChunk < getChunkCount()) {
+			if (ordered) {
+				pending.add(executor.submit(new ChunkReader(takeChunk())));
+			} else {
+				completionService.submit(new ChunkReader(takeChunk()));
+			}
+			pendingCount++;
+		}
+		if (pendingCount == 0) return null;
+		pendingCount--;
+		try {
+			if (ordered) {
+				return pending.removeFirst().get();
+			} else {
+				return completionService.take().get();
+			}
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	private int getChunkCount() {
+		return chunkBounds.length - 1;
+	}
+
+	private ByteBuffer takeChunk() throws IOException {
+		long start = chunkBounds[nextChunk];
+		long end = chunkBounds[nextChunk + 1];
+		nextChunk++;
+		return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (executor != null) executor.shutdownNow();
+		// Mappings of chunks still being read stay valid after closing the file:
+		raf.close();
+	}
+
+	private static class ChunkReader implements Callable<List<DataEntry>> {
+
+		private ByteBuffer chunk;
+
+		ChunkReader(ByteBuffer chunk) {
+			this.chunk = chunk;
+		}
+
+		@Override
+		public List<DataEntry> call() {
+			return MemeUtils.readEntries(chunk);
+		}
+
+	}
+
+}
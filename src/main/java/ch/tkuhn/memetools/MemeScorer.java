@@ -1,5 +1,9 @@
 package ch.tkuhn.memetools;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,40 +17,105 @@ public class MemeScorer {
 
 	private int mode;
 
-	private Map<String,Integer> f;
+	private TermCounter f;
 
 	private int t;
 
-	private Map<String,Integer> mm;
-	private Map<String,Integer> m;
-	private Map<String,Integer> xm;
+	private TermCounter mm;
+	private TermCounter m;
+	private TermCounter xm;
 
-	private Map<String,Boolean> termBeginnings;
+	private TermIndex termIndex;
 
-	private Map<String,Boolean> terms;
+	private CitedTextIndex citedIndex = new CitedTextIndex();
+	private int[] citedTokenSequence = new int[256];
+	private Map<String,Integer> unknownTokens = new HashMap<String,Integer>();
+
+	private int[] processed = new int[256];
+	private int[] sticking = new int[256];
+	private int[] citedStates = new int[256];
+	private int[] firstStarts = new int[256];
+	private int processedStamp = 0;
 
 	public MemeScorer(int mode) {
 		init();
 		this.mode = mode;
-		termBeginnings = new HashMap<String,Boolean>();
-		if (mode != FAST_SCREEN_MODE) {
-			terms = new HashMap<String,Boolean>();
-		}
+		termIndex = new TermIndex();
 	}
 
 	public MemeScorer(MemeScorer termShareObject, int mode) {
 		init();
 		this.mode = mode;
-		terms = termShareObject.terms;
-		termBeginnings = termShareObject.termBeginnings;
+		termIndex = termShareObject.termIndex;
+	}
+
+	// Creates a scorer for recording terms in parallel to this one, sharing its terms (and in fast
+	// screen mode its memes). The shared parts are not modified by recordTerms.
+	public MemeScorer createShard() {
+		MemeScorer shard = new MemeScorer(this, mode);
+		if (mode == FAST_SCREEN_MODE) {
+			shard.mm = mm;
+		}
+		return shard;
+	}
+
+	// Adds the terms and counts of the given scorer to this one.
+	public void merge(MemeScorer other) {
+		int[] nodeMap = null;
+		if (other.termIndex != termIndex) {
+			nodeMap = termIndex.addAll(other.termIndex);
+		}
+		t += other.t;
+		addCounts(f, other.f, nodeMap, 1);
+		if (other.mm != mm) {
+			addCounts(mm, other.mm, nodeMap, 1);
+		}
+		addCounts(m, other.m, nodeMap, 1);
+		addCounts(xm, other.xm, nodeMap, 1);
+	}
+
+	// Subtracts the counts of the given scorer, which has to share the terms with this one.
+	public void subtract(MemeScorer other) {
+		if (other.termIndex != termIndex) {
+			throw new RuntimeException("Terms are not shared");
+		}
+		t -= other.t;
+		addCounts(f, other.f, null, -1);
+		if (other.mm != mm) {
+			addCounts(mm, other.mm, null, -1);
+		}
+		addCounts(m, other.m, null, -1);
+		addCounts(xm, other.xm, null, -1);
+	}
+
+	private static void addCounts(TermCounter target, TermCounter source, int[] nodeMap, int sign) {
+		for (int i = source.nextSlot(-1) ; i >= 0 ; i = source.nextSlot(i)) {
+			int node = source.getKeyAt(i);
+			if (nodeMap != null) node = nodeMap[node];
+			target.add(node, sign * source.getValueAt(i));
+		}
+	}
+
+	// Adds the terms that have counts in this scorer to the given set.
+	public void collectCountedTerms(Set<String> terms) {
+		collectTerms(f, terms);
+		collectTerms(mm, terms);
+		collectTerms(m, terms);
+		collectTerms(xm, terms);
+	}
+
+	private void collectTerms(TermCounter counter, Set<String> terms) {
+		for (int i = counter.nextSlot(-1) ; i >= 0 ; i = counter.nextSlot(i)) {
+			terms.add(termIndex.getTerm(counter.getKeyAt(i)));
+		}
 	}
 
 	private void init() {
-		f = new HashMap<String,Integer>();
+		f = new TermCounter();
 		t = 0;
-		mm = new HashMap<String,Integer>();
-		m = new HashMap<String,Integer>();
-		xm = new HashMap<String,Integer>();
+		mm = new TermCounter();
+		m = new TermCounter();
+		xm = new TermCounter();
 	}
 
 	public void clear() {
@@ -58,20 +127,20 @@ public class MemeScorer {
 	}
 
 	public Map<String,Boolean> getTerms() {
-		return terms;
+		if (mode == FAST_SCREEN_MODE) return null;
+		return termIndex.getTermMap();
 	}
 
 	public Map<String,Integer> getF() {
-		return f;
+		return f.asMap(termIndex);
 	}
 
 	public int getF(String term) {
-		if (!f.containsKey(term)) return 0;
-		return f.get(term);
+		return f.get(termIndex.getNode(term));
 	}
 
 	public double getRelF(String term) {
-		return (double) f.get(term) / t;
+		return (double) getF(term) / t;
 	}
 
 	public int getT() {
@@ -79,35 +148,31 @@ public class MemeScorer {
 	}
 
 	public Map<String,Integer> getMM() {
-		return mm;
+		return mm.asMap(termIndex);
 	}
 
 	public int getMM(String term) {
-		if (!mm.containsKey(term)) return 0;
-		return mm.get(term);
+		return mm.get(termIndex.getNode(term));
 	}
 
 	public Map<String,Integer> getM() {
-		return m;
+		return m.asMap(termIndex);
 	}
 
 	public int getM(String term) {
-		if (!m.containsKey(term)) return 0;
-		return m.get(term);
+		return m.get(termIndex.getNode(term));
 	}
 
 	public Map<String,Integer> getXM() {
-		return xm;
+		return xm.asMap(termIndex);
 	}
 
 	public int getXM(String term) {
-		if (!xm.containsKey(term)) return 0;
-		return xm.get(term);
+		return xm.get(termIndex.getNode(term));
 	}
 
 	public int getX(String term) {
-		if (!m.containsKey(term)) return t;
-		return t - m.get(term);
+		return t - getM(term);
 	}
 
 	public double[] calculateMemeScoreValues(String term, int delta) {
@@ -146,41 +211,55 @@ public class MemeScorer {
 		if (mode != FAST_SCREEN_MODE && mode != DECOMPOSED_SCREEN_MODE) {
 			throw new RuntimeException("Not in screen mode");
 		}
-		recordStickingTerms(d, true, collectTerms);
+		unknownTokens.clear();
+		int[] tokens = getTokenIds(d.getTextTokens(), true);
+		indexCitedText(getCitedTokenIds(d));
+		recordStickingTerms(tokens, true, collectTerms);
 	}
 
-	private void recordStickingTerms(DataEntry d, boolean screening, Set<String> collectTerms) {
-		Map<String,Boolean> processed = new HashMap<String,Boolean>();
-		String allCited = "";
-		for (String c : d.getCitedText()) allCited += "  " + c.trim();
-		allCited += " ";
-		String[] tokens = d.getText().trim().split(" ");
+	private void recordStickingTerms(int[] tokens, boolean screening, Set<String> collectTerms) {
+		nextProcessedStamp();
+		int empty = getTokenId("", false);
 		for (int p1 = 0 ; p1 < tokens.length ; p1++) {
-			String pre = "   ";
-			if (p1 > 0) pre = " " + tokens[p1-1];
-			String term = " ";
+			int preState;
+			if (p1 > 0) {
+				preState = citedIndex.next(CitedTextIndex.ROOT, tokens[p1-1]);
+			} else {
+				preState = walk(CitedTextIndex.ROOT, empty, 3);
+			}
+			int state = CitedTextIndex.ROOT;
+			int node = TermIndex.ROOT;
 			for (int p2 = p1 ; p2 < tokens.length ; p2++) {
-				term += tokens[p2] + " ";
-				String t = term.trim();
+				int parent = node;
+				node = termIndex.getChild(parent, tokens[p2]);
+				state = citedIndex.next(state, tokens[p2]);
+				preState = citedIndex.next(preState, tokens[p2]);
 				if (!screening) {
-					if (ignoreTermsStartingWith(t)) break;
-					if (ignoreTerm(t)) continue;
+					if (ignoreTermsStartingWith(node)) break;
+					if (ignoreTerm(node)) continue;
 				}
-				String post = "   ";
-				if (p2 < tokens.length-1) post = tokens[p2+1] + " ";
-				if (processed.containsKey(t)) continue;
-				if (allCited.contains(term)) {
-					int c = countOccurrences(allCited, term);
-					if (countOccurrences(allCited, pre + term) < c && countOccurrences(allCited, term + post) < c) {
+				if (isProcessed(node)) continue;
+				if (state != CitedTextIndex.NONE) {
+					if (node == TermIndex.NONE) {
+						node = termIndex.addChild(parent, tokens[p2]);
+					}
+					int c = citedIndex.getCount(state);
+					int postState;
+					if (p2 < tokens.length-1) {
+						postState = citedIndex.next(state, tokens[p2+1]);
+					} else {
+						postState = walk(state, empty, 3);
+					}
+					if (citedIndex.getCount(preState) < c && citedIndex.getCount(postState) < c) {
 						if (mode == DECOMPOSED_SCREEN_MODE && screening) {
-							terms.put(t, true);
+							termIndex.setTerm(node);
 						} else {
-							increaseMapEntry(mm, t);
+							mm.increment(node);
 						}
-						if (collectTerms != null) collectTerms.add(t);
-						processed.put(t, true);
+						if (collectTerms != null) collectTerms.add(termIndex.getTerm(node));
+						setProcessed(node);
 					} else if (screening) {
-						termBeginnings.put(t, true);
+						termIndex.setBeginning(node);
 					}
 				} else {
 					break;
@@ -193,24 +272,15 @@ public class MemeScorer {
 		if (mode != GIVEN_TERMLIST_MODE) {
 			throw new RuntimeException("In screen mode");
 		}
-		terms.put(term, true);
-		String[] parts = term.split(" ");
-		String beginning = "";
-		for (int i = 0 ; i < parts.length-1 ; i++) {
-			beginning += " " + parts[i];
-			beginning = beginning.trim();
-			termBeginnings.put(beginning, true);
-		}
+		termIndex.addTerm(term);
 	}
 
 	public void fixTerms() {
-		for (String w : mm.keySet()) {
-			f.put(w, 0);
-			m.put(w, 0);
-			xm.put(w, 0);
-			if (mm.get(w) == null) {
-				mm.put(w, 0);
-			}
+		for (int i = mm.nextSlot(-1) ; i >= 0 ; i = mm.nextSlot(i)) {
+			int node = mm.getKeyAt(i);
+			f.put(node, 0);
+			m.put(node, 0);
+			xm.put(node, 0);
 		}
 	}
 
@@ -220,81 +290,241 @@ public class MemeScorer {
 
 	public void recordTerms(DataEntry d, List<String> collectMemesList) {
 		t++;
-		if (mode != FAST_SCREEN_MODE) {
-			recordStickingTerms(d, false, null);
+		unknownTokens.clear();
+		int[] tokens = getTokenIds(d.getTextTokens(), false);
+		int[][] citedTokens = getCitedTokenIds(d);
+		indexCitedText(citedTokens);
+		if (mode == FAST_SCREEN_MODE) {
+			recordMemes(tokens, citedTokens, collectMemesList);
+		} else {
+			recordMatchingTerms(tokens, citedTokens, collectMemesList);
 		}
+	}
+
+	private void recordMemes(int[] tokens, int[][] citedTokens, List<String> collectMemesList) {
 		// Record terms from citing article:
-		Map<String,Boolean> processed = new HashMap<String,Boolean>();
-		String allCited = "";
-		for (String c : d.getCitedText()) allCited += "  " + c.trim();
-		allCited += " ";
-		String[] tokens = d.getText().trim().split(" ");
+		nextProcessedStamp();
 		for (int p1 = 0 ; p1 < tokens.length ; p1++) {
-			String term = " ";
+			int state = CitedTextIndex.ROOT;
+			int node = TermIndex.ROOT;
 			for (int p2 = p1 ; p2 < tokens.length ; p2++) {
-				term += tokens[p2] + " ";
-				String s = term.trim();
-				if (ignoreTermsStartingWith(s)) break;
-				if (ignoreTerm(s)) continue;
-				if (processed.containsKey(s)) continue;
-				processed.put(s, true);
+				node = termIndex.getChild(node, tokens[p2]);
+				state = citedIndex.next(state, tokens[p2]);
+				if (ignoreTermsStartingWith(node)) break;
+				if (ignoreTerm(node)) continue;
+				if (isProcessed(node)) continue;
+				setProcessed(node);
 				if (collectMemesList != null) {
-					collectMemesList.add(s);
+					collectMemesList.add(termIndex.getTerm(node));
 				}
-				increaseMapEntry(f, s);
-				if (!allCited.contains(term)) {
-					increaseMapEntry(xm, s);
+				f.increment(node);
+				if (state == CitedTextIndex.NONE) {
+					xm.increment(node);
 				}
 			}
 		}
 		// Record terms from cited article:
-		processed = new HashMap<String,Boolean>();
-		for (String cited : d.getCitedText()) {
-			tokens = cited.trim().split(" ");
-			for (int p1 = 0 ; p1 < tokens.length ; p1++) {
-				String term = " ";
-				for (int p2 = p1 ; p2 < tokens.length ; p2++) {
-					term += tokens[p2] + " ";
-					String s = term.trim();
-					if (ignoreTermsStartingWith(s)) break;
-					if (ignoreTerm(s)) continue;
-					if (processed.containsKey(s)) continue;
-					processed.put(s, true);
-					increaseMapEntry(m, s);
+		nextProcessedStamp();
+		for (int[] cited : citedTokens) {
+			for (int p1 = 0 ; p1 < cited.length ; p1++) {
+				int node = TermIndex.ROOT;
+				for (int p2 = p1 ; p2 < cited.length ; p2++) {
+					node = termIndex.getChild(node, cited[p2]);
+					if (ignoreTermsStartingWith(node)) break;
+					if (ignoreTerm(node)) continue;
+					if (isProcessed(node)) continue;
+					setProcessed(node);
+					m.increment(node);
 				}
 			}
 		}
 	}
 
-	private boolean ignoreTermsStartingWith(String term) {
-		if (mode == FAST_SCREEN_MODE) {
-			return !mm.containsKey(term) && !termBeginnings.containsKey(term);
+	// Finds all occurrences of the terms with the term matcher, in one pass over each text:
+	private void recordMatchingTerms(int[] tokens, int[][] citedTokens, List<String> collectMemesList) {
+		final TermMatcher matcher = termIndex.getMatcher();
+		ensureNodeCapacity(termIndex.size());
+		// Record terms from citing article:
+		nextProcessedStamp();
+		List<Integer> collected = null;
+		if (collectMemesList != null) collected = new ArrayList<Integer>();
+		int state = TermMatcher.ROOT;
+		for (int p2 = 0 ; p2 < tokens.length ; p2++) {
+			state = matcher.next(state, tokens[p2]);
+			for (int node = matcher.getTerm(state) ; node != TermMatcher.NONE ; node = matcher.getNextTerm(node)) {
+				int p1 = p2 - matcher.getLength(node) + 1;
+				if (processed[node] != processedStamp) {
+					processed[node] = processedStamp;
+					citedStates[node] = walk(CitedTextIndex.ROOT, tokens, p1, p2 + 1);
+					firstStarts[node] = p1;
+					if (collected != null) collected.add(node);
+					f.increment(node);
+					if (citedStates[node] == CitedTextIndex.NONE) {
+						xm.increment(node);
+					}
+				}
+				if (citedStates[node] == CitedTextIndex.NONE || sticking[node] == processedStamp) continue;
+				if (isSticking(tokens, p1, p2, citedStates[node])) {
+					sticking[node] = processedStamp;
+					mm.increment(node);
+				}
+			}
+		}
+		if (collected != null) {
+			// Same order as when going through the terms by start and end position:
+			Collections.sort(collected, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer n1, Integer n2) {
+					if (firstStarts[n1] != firstStarts[n2]) return firstStarts[n1] < firstStarts[n2] ? -1 : 1;
+					return matcher.getLength(n1) - matcher.getLength(n2);
+				}
+			});
+			for (int node : collected) {
+				collectMemesList.add(termIndex.getTerm(node));
+			}
+		}
+		// Record terms from cited article:
+		nextProcessedStamp();
+		for (int[] cited : citedTokens) {
+			state = TermMatcher.ROOT;
+			for (int token : cited) {
+				state = matcher.next(state, token);
+				for (int node = matcher.getTerm(state) ; node != TermMatcher.NONE ; node = matcher.getNextTerm(node)) {
+					if (processed[node] == processedStamp) continue;
+					processed[node] = processedStamp;
+					m.increment(node);
+				}
+			}
+		}
+	}
+
+	private boolean isSticking(int[] tokens, int p1, int p2, int state) {
+		int empty = getTokenId("", false);
+		int c = citedIndex.getCount(state);
+		int preState;
+		if (p1 > 0) {
+			preState = citedIndex.next(CitedTextIndex.ROOT, tokens[p1-1]);
 		} else {
-			return !terms.containsKey(term) && !termBeginnings.containsKey(term);
+			preState = walk(CitedTextIndex.ROOT, empty, 3);
 		}
+		preState = walk(preState, tokens, p1, p2 + 1);
+		int postState;
+		if (p2 < tokens.length-1) {
+			postState = citedIndex.next(state, tokens[p2+1]);
+		} else {
+			postState = walk(state, empty, 3);
+		}
+		return citedIndex.getCount(preState) < c && citedIndex.getCount(postState) < c;
+	}
+
+	private boolean ignoreTermsStartingWith(int node) {
+		if (node == TermIndex.NONE) return true;
+		return !termIndex.isBeginning(node) && ignoreTerm(node);
 	}
 
-	private boolean ignoreTerm(String term) {
+	private boolean ignoreTerm(int node) {
+		if (node == TermIndex.NONE) return true;
 		if (mode == FAST_SCREEN_MODE) {
-			return !mm.containsKey(term);
+			return !mm.containsKey(node);
 		} else {
-			return !terms.containsKey(term);
+			return !termIndex.isTerm(node);
 		}
 	}
 
-	private static void increaseMapEntry(Map<String,Integer> map, String key) {
-		if (map.containsKey(key)) {
-			map.put(key, map.get(key) + 1);
-		} else {
-			map.put(key, 1);
+	private int[] getTokenIds(String[] tokens, boolean add) {
+		int[] tokenIds = new int[tokens.length];
+		for (int i = 0 ; i < tokens.length ; i++) {
+			tokenIds[i] = getTokenId(tokens[i], add);
+		}
+		return tokenIds;
+	}
+
+	private int getTokenId(String token, boolean add) {
+		TokenDictionary dict = termIndex.getDictionary();
+		if (add) return dict.add(token);
+		int id = dict.get(token);
+		if (id == TokenDictionary.NONE) {
+			// Tokens that are not part of any term still need distinct IDs to match cited texts:
+			Integer u = unknownTokens.get(token);
+			if (u == null) {
+				u = Integer.MAX_VALUE - unknownTokens.size();
+				unknownTokens.put(token, u);
+			}
+			id = u;
 		}
+		return id;
 	}
 
-	private static int countOccurrences(String string, String subString) {
-		int c = 0;
-		int p = -1;
-		while ((p = string.indexOf(subString, p+1)) > -1) c++;
-		return c;
+	private int[][] getCitedTokenIds(DataEntry d) {
+		List<String[]> citedText = d.getCitedTextTokens();
+		int[][] citedTokens = new int[citedText.size()][];
+		for (int i = 0 ; i < citedTokens.length ; i++) {
+			citedTokens[i] = getTokenIds(citedText.get(i), false);
+		}
+		return citedTokens;
+	}
+
+	private void indexCitedText(int[][] citedTokens) {
+		int n = 0;
+		for (int[] tokens : citedTokens) {
+			n += tokens.length + 1;
+		}
+		if (citedTokenSequence.length < n) {
+			citedTokenSequence = new int[Math.max(n, citedTokenSequence.length * 2)];
+		}
+		// Cited texts are separated by an empty token, which corresponds to the double space
+		// between them in the concatenated string:
+		int empty = getTokenId("", false);
+		int i = 0;
+		for (int[] tokens : citedTokens) {
+			citedTokenSequence[i++] = empty;
+			for (int token : tokens) {
+				citedTokenSequence[i++] = token;
+			}
+		}
+		citedIndex.index(citedTokenSequence, n);
+	}
+
+	private int walk(int state, int[] tokens, int start, int end) {
+		for (int i = start ; i < end ; i++) {
+			state = citedIndex.next(state, tokens[i]);
+		}
+		return state;
+	}
+
+	private int walk(int state, int token, int times) {
+		for (int i = 0 ; i < times ; i++) {
+			state = citedIndex.next(state, token);
+		}
+		return state;
+	}
+
+	private void nextProcessedStamp() {
+		processedStamp++;
+		if (processedStamp == Integer.MAX_VALUE) {
+			Arrays.fill(processed, 0);
+			Arrays.fill(sticking, 0);
+			processedStamp = 1;
+		}
+	}
+
+	private boolean isProcessed(int node) {
+		return node != TermIndex.NONE && node < processed.length && processed[node] == processedStamp;
+	}
+
+	private void setProcessed(int node) {
+		ensureNodeCapacity(node + 1);
+		processed[node] = processedStamp;
+	}
+
+	private void ensureNodeCapacity(int n) {
+		if (n > processed.length) {
+			int l = Math.max(n, processed.length * 2);
+			processed = Arrays.copyOf(processed, l);
+			sticking = Arrays.copyOf(sticking, l);
+			citedStates = Arrays.copyOf(citedStates, l);
+			firstStarts = Arrays.copyOf(firstStarts, l);
+		}
 	}
 
 }
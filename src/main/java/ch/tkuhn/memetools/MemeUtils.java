@@ -5,9 +5,15 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.sql.Timestamp;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.supercsv.prefs.CsvPreference;
 
@@ -79,6 +85,81 @@ public class MemeUtils {
 		return text.trim();
 	}
 
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	public static int getDefaultReaderThreadCount() {
+		return Math.min(4, Runtime.getRuntime().availableProcessors());
+	}
+
+	// Splits the file of the given channel into chunks of whole lines (chunks are larger than the given
+	// size if a line does not fit) and returns the start positions of the chunks followed by the file
+	// size. The chunks are mapped only when they are read, so the number of mappings stays small.
+	public static long[] getLineChunkBounds(FileChannel channel, int chunkSize) throws IOException {
+		long size = channel.size();
+		long[] bounds = new long[1024];
+		int n = 0;
+		long start = 0;
+		while (start < size) {
+			long end = findChunkEnd(channel, Math.min(start + chunkSize, size), size);
+			if (end - start > Integer.MAX_VALUE) {
+				throw new RuntimeException("Line too long at position " + start);
+			}
+			if (n + 1 == bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+			bounds[n++] = start;
+			start = end;
+		}
+		bounds[n++] = size;
+		return Arrays.copyOf(bounds, n);
+	}
+
+	// Returns the position after the first line terminator that ends at or after pos
+	private static long findChunkEnd(FileChannel channel, long pos, long size) throws IOException {
+		if (pos == size) return size;
+		ByteBuffer b = ByteBuffer.allocate(64 * 1024);
+		long p = pos - 1;
+		while (p < size) {
+			b.clear();
+			int n = channel.read(b, p);
+			for (int i = 0 ; i < n ; i++) {
+				byte c = b.get(i);
+				if (c == '\n') return p + i + 1;
+				if (c == '\r') {
+					// Do not split "\r\n":
+					if (i + 1 < n) return p + i + (b.get(i + 1) == '\n' ? 2 : 1);
+					ByteBuffer next = ByteBuffer.allocate(1);
+					if (channel.read(next, p + i + 1) == 1 && next.get(0) == '\n') return p + i + 2;
+					return p + i + 1;
+				}
+			}
+			p += n;
+		}
+		return size;
+	}
+
+	// Parses the lines of a chunk as given by getLineChunkBounds (decoded as UTF-8), splitting lines
+	// in the same way as BufferedReader.readLine
+	public static List<DataEntry> readEntries(ByteBuffer chunk) {
+		List<DataEntry> entries = new ArrayList<DataEntry>();
+		// Scanning a heap copy is much faster than single-byte access to the mapped buffer:
+		byte[] bytes = new byte[chunk.remaining()];
+		chunk.duplicate().get(bytes);
+		int l = bytes.length;
+		int i = 0;
+		while (i < l) {
+			int lineEnd = i;
+			byte c = 0;
+			while (lineEnd < l && (c = bytes[lineEnd]) != '\n' && c != '\r') {
+				lineEnd++;
+			}
+			entries.add(new DataEntry(new String(bytes, i, lineEnd - i, UTF8)));
+			i = lineEnd + 1;
+			if (c == '\r' && i < l && bytes[i] == '\n') i++;
+		}
+		return entries;
+	}
+
 	public static void log(File logFile, Object obj) {
 		try {
 		    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(logFile, true)));
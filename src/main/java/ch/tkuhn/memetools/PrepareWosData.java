@@ -1,8 +1,14 @@
 package ch.tkuhn.memetools;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -12,8 +18,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
@@ -39,6 +53,15 @@ public class PrepareWosData {
 	@Parameter(names = "-sd", description = "Skip data file generation")
 	private boolean skipData = false;
 
+	@Parameter(names = "-sc", description = "Skip citation graph file generation")
+	private boolean skipGraph = false;
+
+	@Parameter(names = "-store", description = "Directory to store the parsed data in, for reuse by later runs")
+	private File storeDir;
+
+	@Parameter(names = "-threads", description = "Number of threads for parsing the raw data files")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	private File logFile;
 
 	public static final void main(String[] args) {
@@ -55,14 +78,17 @@ public class PrepareWosData {
 
 	private static String wosFolder = "wos";
 
-	private final static int MAX_WOS_ID = 150000000;
-
+	// Entries are stored in the order in which they are read:
 	private IntStringMap titles;
-	private Short[] years;
 	private IntStringMap references;
-
+	private int[] entryIds;
+	private short[] years;
 	private int docCount;
 
+	// Dense indexes of the WoS IDs, and the entries for them (the last one for duplicate IDs):
+	private WosIdDictionary idDictionary;
+	private int[] entries;
+
 	private Set<FileVisitOption> walkFileTreeOptions;
 
 	public PrepareWosData() {
@@ -74,6 +100,7 @@ public class PrepareWosData {
 			readData();
 			writeDataFile();
 			writeGmlFile();
+			writeGraphFile();
 		} catch (Throwable th) {
 			log(th);
 			System.exit(1);
@@ -86,60 +113,247 @@ public class PrepareWosData {
 		log("==========");
 		log("Starting...");
 
-		titles = new IntStringMap(MAX_WOS_ID);
-		years = new Short[MAX_WOS_ID];
-		references = new IntStringMap(MAX_WOS_ID);
-
+		entryIds = new int[1024];
+		years = new short[1024];
 		docCount = 0;
 
 		walkFileTreeOptions = new HashSet<FileVisitOption>();
 		walkFileTreeOptions.add(FileVisitOption.FOLLOW_LINKS);
 	}
 
-	private void readData() throws IOException {
+	private void readData() throws Exception {
 		if (rawWosDataDir == null) {
 			rawWosDataDir = new File(MemeUtils.getRawDataDir(), wosFolder);
 		}
-		log("Reading files from " + rawWosDataDir + " ...");
+		final List<Path> files = new ArrayList<Path>();
 		Files.walkFileTree(rawWosDataDir.toPath(), walkFileTreeOptions, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
 			@Override
 			public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
 				if (path.toString().endsWith(".txt")) {
-					readData(path);
+					files.add(path);
 				}
 				return FileVisitResult.CONTINUE;
 			}
 		});
+		List<String> sourceInfo = getSourceInfo(files);
+		if (storeDir != null && IntStringMap.exists(getStoreFile("titles")) && IntStringMap.exists(getStoreFile("references"))
+				&& getStoreFile("entries").exists()) {
+			if (readEntries(sourceInfo)) {
+				log("Reading stored data from " + storeDir + " ...");
+				titles = IntStringMap.open(getStoreFile("titles"));
+				references = IntStringMap.open(getStoreFile("references"));
+				log("Number of documents: " + docCount);
+				makeIdDictionary();
+				return;
+			}
+			log("Stored data in " + storeDir + " is outdated");
+		}
+		if (storeDir == null) {
+			titles = new IntStringMap(1024);
+			references = new IntStringMap(1024);
+		} else {
+			storeDir.mkdirs();
+			// The entries file is written last and marks the stored data as complete:
+			getStoreFile("entries").delete();
+			titles = new IntStringMap(1024, getStoreFile("titles"));
+			references = new IntStringMap(1024, getStoreFile("references"));
+		}
+		log("Reading files from " + rawWosDataDir + " with " + threads + " threads ...");
+		// Files are parsed in parallel, but their entries are added in the order of the files, so the
+		// result does not depend on the number of threads:
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			LinkedList<Future<ParsedFile>> pending = new LinkedList<Future<ParsedFile>>();
+			int next = 0;
+			for (Path path : files) {
+				// At most one parsed file per thread is kept in memory:
+				while (next < files.size() && pending.size() < threads) {
+					pending.add(executor.submit(new FileParser(files.get(next))));
+					next++;
+				}
+				log("Reading file to collect IDs: " + path);
+				ParsedFile parsed = pending.removeFirst().get();
+				for (String message : parsed.getErrorMessages()) {
+					log(message);
+				}
+				for (int i = 0 ; i < parsed.size() ; i++) {
+					addEntry(parsed.getId(i), parsed.getYear(i), parsed.getTitle(i), parsed.getReferences(i));
+				}
+				log("Number of errors: " + parsed.getErrors());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
 		titles.freeze();
 		references.freeze();
+		if (storeDir != null) writeEntries(sourceInfo);
 		log("Number of documents: " + docCount);
+		makeIdDictionary();
 	}
 
-	private void readData(Path path) throws IOException {
-		log("Reading file to collect IDs: " + path);
-		BufferedReader reader = new BufferedReader(new FileReader(path.toFile()), 64*1024);
-		int errors = 0;
-		String line;
-		while ((line = reader.readLine()) != null) {
-			WosEntry entry;
-			if (verbose) {
-				entry = new WosEntry(line, logFile);
-			} else {
-				entry = new WosEntry(line);
+	private void makeIdDictionary() {
+		idDictionary = new WosIdDictionary();
+		for (int e = 0 ; e < docCount ; e++) {
+			idDictionary.add(entryIds[e]);
+		}
+		idDictionary.freeze();
+		entries = new int[idDictionary.size()];
+		for (int e = 0 ; e < docCount ; e++) {
+			entries[idDictionary.getIndex(entryIds[e])] = e;
+		}
+		log("Number of distinct IDs: " + idDictionary.size());
+	}
+
+	private File getStoreFile(String name) {
+		String filename = "wos";
+		if (cth > 0) filename += "-c" + cth;
+		if (rth > 0) filename += "-r" + rth;
+		return new File(storeDir, filename + "-" + name + ".store");
+	}
+
+	// Describes the raw data and the thresholds, so stored data is only reused if they did not change
+	private List<String> getSourceInfo(List<Path> files) throws IOException {
+		List<String> info = new ArrayList<String>();
+		info.add("dir " + rawWosDataDir.getCanonicalPath());
+		info.add("rth " + rth);
+		info.add("cth " + cth);
+		for (Path path : files) {
+			File f = path.toFile();
+			info.add("file " + f.getCanonicalPath() + " " + f.length() + " " + f.lastModified());
+		}
+		return info;
+	}
+
+	private void writeEntries(List<String> sourceInfo) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getStoreFile("entries")), 64*1024));
+		out.writeInt(sourceInfo.size());
+		for (String s : sourceInfo) {
+			out.writeUTF(s);
+		}
+		out.writeInt(docCount);
+		for (int e = 0 ; e < docCount ; e++) {
+			out.writeInt(entryIds[e]);
+			out.writeShort(years[e]);
+		}
+		out.close();
+	}
+
+	// Returns false (without reading the entries) if the stored data comes from a different source
+	private boolean readEntries(List<String> sourceInfo) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getStoreFile("entries")), 64*1024));
+		List<String> storedInfo = new ArrayList<String>();
+		try {
+			int n = in.readInt();
+			for (int i = 0 ; i < n && i <= sourceInfo.size() ; i++) {
+				storedInfo.add(in.readUTF());
+			}
+		} catch (IOException ex) {
+			// Entries file without source information (from an older version)
+			storedInfo = null;
+		}
+		if (!sourceInfo.equals(storedInfo)) {
+			in.close();
+			return false;
+		}
+		docCount = in.readInt();
+		entryIds = new int[docCount];
+		years = new short[docCount];
+		for (int e = 0 ; e < docCount ; e++) {
+			entryIds[e] = in.readInt();
+			years[e] = in.readShort();
+		}
+		in.close();
+		return true;
+	}
+
+	private class FileParser implements Callable<ParsedFile> {
+
+		private Path path;
+
+		FileParser(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		public ParsedFile call() throws IOException {
+			ParsedFile parsed = new ParsedFile();
+			BufferedReader reader = new BufferedReader(new FileReader(path.toFile()), 64*1024);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// Errors are not logged here, but by the main thread, so log lines do not interleave:
+				WosEntry entry = new WosEntry(line);
+				if (!entry.isValid()) {
+					parsed.addError(verbose ? entry.getError() : null);
+					continue;
+				}
+				if (entry.getRefCount() < rth) continue;
+				if (entry.getCitCount() < cth) continue;
+				parsed.addEntry(entry.getIdInt(), entry.getYear(), MemeUtils.normalize(entry.getTitle()), entry.getRef());
 			}
-			if (!entry.isValid()) {
-				errors++;
-				continue;
+			reader.close();
+			return parsed;
+		}
+
+	}
+
+	// Parsed entries of a file, with only the parts that are needed later
+	private static class ParsedFile {
+
+		private int[] ids = new int[1024];
+		private short[] years = new short[1024];
+		private String[] titles = new String[1024];
+		private String[] references = new String[1024];
+		private int size = 0;
+		private int errors = 0;
+		private List<String> errorMessages = new ArrayList<String>();
+
+		void addEntry(int id, short year, String title, String refs) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				years = Arrays.copyOf(years, size * 2);
+				titles = Arrays.copyOf(titles, size * 2);
+				references = Arrays.copyOf(references, size * 2);
 			}
-			if (entry.getRefCount() < rth) continue;
-			if (entry.getCitCount() < cth) continue;
-			docCount++;
-			putTitle(entry.getIdInt(), MemeUtils.normalize(entry.getTitle()));
-			putYear(entry.getIdInt(), entry.getYear());
-			putReferences(entry.getIdInt(), entry.getRef());
-		}
-		reader.close();
-		log("Number of errors: " + errors);
+			ids[size] = id;
+			years[size] = year;
+			titles[size] = title;
+			references[size] = refs;
+			size++;
+		}
+
+		void addError(String message) {
+			errors++;
+			if (message != null) errorMessages.add(message);
+		}
+
+		int size() {
+			return size;
+		}
+
+		int getId(int i) {
+			return ids[i];
+		}
+
+		short getYear(int i) {
+			return years[i];
+		}
+
+		String getTitle(int i) {
+			return titles[i];
+		}
+
+		String getReferences(int i) {
+			return references[i];
+		}
+
+		int getErrors() {
+			return errors;
+		}
+
+		List<String> getErrorMessages() {
+			return errorMessages;
+		}
+
 	}
 
 	private void writeDataFile() throws IOException {
@@ -150,18 +364,12 @@ public class PrepareWosData {
 		if (rth > 0) filename += "-r" + rth;
 		File file = new File(MemeUtils.getPreparedDataDir(), filename + ".txt");
 		BufferedWriter wT = new BufferedWriter(new FileWriter(file));
-		for (int id1 = 0 ; id1 < MAX_WOS_ID ; id1++) {
-			String text = getTitle(id1);
-			if (text == null) continue;
-			short year = getYear(id1);
-			DataEntry e = new DataEntry(getIdString(id1), year, text);
-			String refs = getReferences(id1);
-			while (!refs.isEmpty()) {
-				String id2 = refs.substring(0, 9);
-				refs = refs.substring(9);
-				if (getTitle(id2) != null) {
-					e.addCitedText(getTitle(id2));
-				}
+		for (int i1 = 0 ; i1 < idDictionary.size() ; i1++) {
+			String text = getTitle(i1);
+			short year = getYear(i1);
+			DataEntry e = new DataEntry(idDictionary.getIdString(i1), year, text);
+			for (int i2 : getReferenceIndexes(i1)) {
+				e.addCitedText(getTitle(i2));
 			}
 			wT.write(e.getLine() + "\n");
 		}
@@ -178,13 +386,12 @@ public class PrepareWosData {
 		BufferedWriter w = new BufferedWriter(new FileWriter(file));
 		w.write("graph [\n");
 		w.write("directed 1\n");
-		for (int id = 0 ; id < MAX_WOS_ID ; id++) {
-			String text = getTitle(id);
-			if (text == null) continue;
-			short year = getYear(id);
+		for (int i = 0 ; i < idDictionary.size() ; i++) {
+			String text = getTitle(i);
+			short year = getYear(i);
 			text = " " + text + " ";
 			w.write("node [\n");
-			w.write("id \"" + getIdString(id) + "\"\n");
+			w.write("id \"" + idDictionary.getIdString(i) + "\"\n");
 			w.write("year \"" + year + "\"\n");
 			// TODO Make this general:
 			if (text.contains(" quantum ")) w.write("memeQuantum \"y\"\n");
@@ -193,59 +400,74 @@ public class PrepareWosData {
 			if (text.contains(" graphene ")) w.write("memeGraphene \"y\"\n");
 			w.write("]\n");
 		}
-		for (int id1 = 0 ; id1 < MAX_WOS_ID ; id1++) {
-			String refs = getReferences(id1);
-			if (refs == null) continue;
-			while (!refs.isEmpty()) {
-				String id2Str = refs.substring(0, 9);
-				refs = refs.substring(9);
-				if (getTitle(id2Str) != null) {
-					w.write("edge [\n");
-					w.write("source \"" + getIdString(id1) + "\"\n");
-					w.write("target \"" + id2Str + "\"\n");
-					w.write("]\n");
-				}
+		for (int i1 = 0 ; i1 < idDictionary.size() ; i1++) {
+			for (int i2 : getReferenceIndexes(i1)) {
+				w.write("edge [\n");
+				w.write("source \"" + idDictionary.getIdString(i1) + "\"\n");
+				w.write("target \"" + idDictionary.getIdString(i2) + "\"\n");
+				w.write("]\n");
 			}
 		}
 		w.write("]\n");
 		w.close();
 	}
 
-	private String getIdString(int id) {
-		return String.format("%09d", id);
-	}
-
-	private void putTitle(int id, String title) {
-		titles.put(id, title);
+	private void writeGraphFile() throws IOException {
+		if (skipGraph) return;
+		log("Writing citation graph file...");
+		String filename = "wos";
+		if (cth > 0) filename += "-c" + cth;
+		if (rth > 0) filename += "-r" + rth;
+		File file = new File(MemeUtils.getPreparedDataDir(), filename + ".graph");
+		CitationGraph.write(file, idDictionary, new CitationGraph.ReferenceSource() {
+			@Override
+			public int[] getReferences(int node) {
+				return getReferenceIndexes(node);
+			}
+		});
 	}
 
-	private String getTitle(Object id) {
-		if (id instanceof Integer) {
-			return titles.get((Integer) id);
+	private void addEntry(int id, short year, String title, String refs) throws IOException {
+		int e = docCount;
+		docCount++;
+		if (e == entryIds.length) {
+			entryIds = Arrays.copyOf(entryIds, e * 2);
+			years = Arrays.copyOf(years, e * 2);
 		}
-		return titles.get(Integer.parseInt(id.toString()));
+		entryIds[e] = id;
+		years[e] = year;
+		titles.put(e, title);
+		references.put(e, refs);
 	}
 
-	private void putYear(int id, short year) {
-		years[id] = year;
+	// The following methods take the dense indexes of the WoS IDs:
+
+	private String getTitle(int index) {
+		return titles.get(entries[index]);
 	}
 
-	private short getYear(Object id) {
-		if (id instanceof Integer) {
-			return years[(Integer) id];
-		}
-		return years[Integer.parseInt(id.toString())];
+	private short getYear(int index) {
+		return years[entries[index]];
 	}
 
-	private void putReferences(int id, String ref) {
-		references.put(id, ref);
+	private String getReferences(int index) {
+		return references.get(entries[index]);
 	}
 
-	private String getReferences(Object id) {
-		if (id instanceof Integer) {
-			return references.get((Integer) id);
+	// Returns the indexes of the referenced documents (only the ones in the dictionary)
+	private int[] getReferenceIndexes(int index) {
+		String refs = getReferences(index);
+		int[] result = new int[refs.length() / 9];
+		int n = 0;
+		for (int p = 0 ; p < refs.length() ; p += 9) {
+			int id = 0;
+			for (int k = p ; k < p + 9 ; k++) {
+				id = id * 10 + (refs.charAt(k) - '0');
+			}
+			int i = idDictionary.getIndex(id);
+			if (i != -1) result[n++] = i;
 		}
-		return references.get(Integer.parseInt(id.toString()));
+		return Arrays.copyOf(result, n);
 	}
 
 	private void log(Object obj) {
@@ -287,6 +509,7 @@ public class PrepareWosData {
 		private int citCount;
 
 		private File logFile;
+		private String error;
 
 		String getId() {
 			return id;
@@ -329,35 +552,44 @@ public class PrepareWosData {
 
 		WosEntry(String line, File logFile) {
 			this.logFile = logFile;
-			String[] parts = line.split(";", -1);
-			if (parts.length < 15) {
+			// Positions of the first ten delimiters, and number of delimiters:
+			int[] delims = new int[10];
+			int n = 0;
+			for (int i = line.indexOf(';') ; i >= 0 ; i = line.indexOf(';', i + 1)) {
+				if (n < delims.length) delims[n] = i;
+				n++;
+			}
+			if (n < 14) {
 				log("Invalid line: " + line);
 				return;
 			}
-			id = parts[0];
-			if (!id.matches("[0-9]{9}")) {
+			id = line.substring(0, delims[0]);
+			if (id.length() != 9 || !isDigits(id)) {
 				log("Invalid ID: " + id);
 				return;
 			}
-			String yearStr = parts[1];
-			if (!yearStr.matches("[0-9]{4}")) {
+			String yearStr = line.substring(delims[0] + 1, delims[1]);
+			if (yearStr.length() != 4 || !isDigits(yearStr)) {
 				log("Invalid year: " + yearStr);
 				return;
 			}
 			year = Short.parseShort(yearStr);
-			title = parts[9];
+			title = line.substring(delims[8] + 1, delims[9]);
 			if (title.isEmpty()) {
 				log("Empty title for publication: " + id);
 				return;
 			}
-			ref = parts[parts.length-2];
-			if (!ref.matches("([0-9]{9})*")) {
+			// References and citations are in the last two columns:
+			int citDelim = line.lastIndexOf(';');
+			int refDelim = line.lastIndexOf(';', citDelim - 1);
+			ref = line.substring(refDelim + 1, citDelim);
+			if (ref.length() % 9 != 0 || !isDigits(ref)) {
 				log("Invalid references: " + ref);
 				return;
 			}
 			refCount = ref.length() / 9;
-			cit = parts[parts.length-1];
-			if (!cit.matches("([0-9]{9})*")) {
+			cit = line.substring(citDelim + 1);
+			if (cit.length() % 9 != 0 || !isDigits(cit)) {
 				log("Invalid citations: " + cit);
 				return;
 			}
@@ -365,7 +597,16 @@ public class PrepareWosData {
 			valid = true;
 		}
 
+		private static boolean isDigits(String s) {
+			for (int i = 0 ; i < s.length() ; i++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9') return false;
+			}
+			return true;
+		}
+
 		private void log(String text) {
+			error = text;
 			if (logFile != null) {
 				MemeUtils.log(logFile, text);
 			}
@@ -375,6 +616,11 @@ public class PrepareWosData {
 			return valid;
 		}
 
+		// Returns the reason why the entry is invalid
+		String getError() {
+			return error;
+		}
+
 	}
 
 }
@@ -1,6 +1,7 @@
 package ch.tkuhn.memetools;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
@@ -44,6 +45,9 @@ public class RenderWosGraph {
 	@Parameter(names = "-d", description = "The directory to read the raw data from")
 	private File rawWosDataDir;
 
+	@Parameter(names = "-g", description = "Citation graph file to read the edges from (instead of the raw data)")
+	private File graphFile;
+
 	@Parameter(names = "-sj", description = "File with the subject mappings")
 	private File subjFile;
 
@@ -68,6 +72,15 @@ public class RenderWosGraph {
 	@Parameter(names = "-ea", description = "Edge alpha")
 	private float edgeAlpha = 0.002f;
 
+	@Parameter(names = "-tiled", description = "Rasterize tiles of the bitmap in parallel (instead of using the GraphDrawer); without -g, all edges are kept in memory (16 bytes each)")
+	private boolean tiled = false;
+
+	@Parameter(names = "-ts", description = "Tile size in pixels for tiled rendering")
+	private int tileSize = 1024;
+
+	@Parameter(names = "-threads", description = "Number of threads for tiled rendering")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	private File logFile;
 
 	public static final void main(String[] args) {
@@ -90,14 +103,19 @@ public class RenderWosGraph {
 
 	private static String wosFolder = "wos";
 
+	private static final int NODES_PER_PART = 1 << 16;
+
 	private Map<String,Byte> subjectMap;
 	private byte[] categories;
 	private Map<Byte,Color> colorMap;
 
+	// Nodes are indexed by the dense indexes of the WoS IDs:
+	private WosIdDictionary idDictionary;
 	private float[] pointsX;
 	private float[] pointsY;
 
 	private GraphDrawer graphDrawer;
+	private TiledGraphRenderer tiledRenderer;
 
 	private Set<FileVisitOption> walkFileTreeOptions;
 
@@ -107,8 +125,8 @@ public class RenderWosGraph {
 	public void run() {
 		try {
 			init();
-			readSubjects();
 			readNodes();
+			readSubjects();
 			drawEdges();
 			drawNodes();
 			writeImage();
@@ -133,7 +151,6 @@ public class RenderWosGraph {
 
 		if (subjFile != null) {
 			subjectMap = new HashMap<String,Byte>();
-			categories = new byte[150000000];
 			colorMap = new HashMap<Byte,Color>();
 			colorMap.put((byte) 0, new Color(123, 123, 123, (int) (nodeAlpha * 255)));
 			colorMap.put((byte) 1, new Color(255, 0, 0, (int) (nodeAlpha * 255)));
@@ -144,13 +161,18 @@ public class RenderWosGraph {
 			colorMap.put((byte) 6, new Color(255, 0, 255, (int) (nodeAlpha * 255)));
 		}
 
-		pointsX = new float[150000000];
-		pointsY = new float[150000000];
-
-		graphDrawer = new GraphDrawer(size);
-		graphDrawer.setTransformation(0, scale, true);
-		graphDrawer.setEdgeAlpha(edgeAlpha);
-		graphDrawer.setNodeSize(dotSize);
+		idDictionary = new WosIdDictionary();
+
+		if (tiled) {
+			tiledRenderer = new TiledGraphRenderer(size, scale, tileSize);
+			tiledRenderer.setEdgeAlpha(edgeAlpha);
+			tiledRenderer.setNodeSize(dotSize);
+		} else {
+			graphDrawer = new GraphDrawer(size);
+			graphDrawer.setTransformation(0, scale, true);
+			graphDrawer.setEdgeAlpha(edgeAlpha);
+			graphDrawer.setNodeSize(dotSize);
+		}
 
 		walkFileTreeOptions = new HashSet<FileVisitOption>();
 		walkFileTreeOptions.add(FileVisitOption.FOLLOW_LINKS);
@@ -159,6 +181,7 @@ public class RenderWosGraph {
 	private void readSubjects() throws IOException {
 		if (subjFile == null) return;
 		readSubjectMap();
+		categories = new byte[idDictionary.size()];
 		log("Reading subjects from file: " + subjFile);
 		BufferedReader r = new BufferedReader(new FileReader(subjFile), 64*1024);
 		int progress = 0;
@@ -189,7 +212,8 @@ public class RenderWosGraph {
 					mainCat = 0;
 				}
 			}
-			categories[id] = mainCat;
+			int index = idDictionary.getIndex(id);
+			if (index != -1) categories[index] = mainCat;
 			total[mainCat]++;
 		}
 		r.close();
@@ -225,14 +249,16 @@ public class RenderWosGraph {
 
 	private void readNodes() throws IOException {
 		log("Processing nodes from input file: " + inputFile);
+		final List<Integer> ids = new ArrayList<Integer>();
+		final List<Pair<Float,Float>> points = new ArrayList<Pair<Float,Float>>();
 		GraphIterator gi = new GraphIterator(inputFile, new GraphIterator.GraphHandler() {
 
 			@Override
 			public void handleNode(String nodeId, Pair<Float,Float> coords, Color color, Map<String,String> atts) throws Exception {
 				int id = Integer.parseInt(nodeId);
-				pointsX[id] = coords.getLeft();
-				pointsY[id] = coords.getRight();
-				
+				idDictionary.add(id);
+				ids.add(id);
+				points.add(coords);
 			}
 
 			@Override
@@ -241,13 +267,22 @@ public class RenderWosGraph {
 		});
 		gi.setEdgeHandlingEnabled(false);
 		gi.run();
+		idDictionary.freeze();
+		log("Number of nodes: " + idDictionary.size());
+		pointsX = new float[idDictionary.size()];
+		pointsY = new float[idDictionary.size()];
+		for (int i = 0 ; i < ids.size() ; i++) {
+			int index = idDictionary.getIndex(ids.get(i));
+			pointsX[index] = points.get(i).getLeft();
+			pointsY[index] = points.get(i).getRight();
+		}
 	}
 
 	private void drawNodes() {
 		log("Drawing nodes...");
 		Color color = new Color(0, 0, 255, (int) (nodeAlpha * 255));
 		int progress = 0;
-		for (int i = 0 ; i < 150000000 ; i++) {
+		for (int i = 0 ; i < idDictionary.size() ; i++) {
 			logProgress(progress);
 			progress++;
 			float x = pointsX[i];
@@ -256,11 +291,19 @@ public class RenderWosGraph {
 			if (categories != null) {
 				color = colorMap.get(categories[i]);
 			}
-			graphDrawer.drawNode(x, y, color);
+			if (tiled) {
+				tiledRenderer.drawNode(x, y, color);
+			} else {
+				graphDrawer.drawNode(x, y, color);
+			}
 		}
 	}
 
 	private void drawEdges() throws IOException {
+		if (graphFile != null) {
+			drawEdgesFromGraph();
+			return;
+		}
 		log("Drawing edges from " + rawWosDataDir + " ...");
 		Files.walkFileTree(rawWosDataDir.toPath(), walkFileTreeOptions, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
 			@Override
@@ -271,6 +314,53 @@ public class RenderWosGraph {
 				return FileVisitResult.CONTINUE;
 			}
 		});
+		if (!tiled) graphDrawer.finishEdgeDrawing();
+	}
+
+	private void drawEdgesFromGraph() throws IOException {
+		log("Drawing edges from " + graphFile + " ...");
+		final CitationGraph graph = CitationGraph.open(graphFile);
+		// Indexes of the graph nodes in the input file:
+		final int[] indexes = new int[graph.getNodeCount()];
+		for (int i = 0 ; i < indexes.length ; i++) {
+			indexes[i] = idDictionary.getIndex(graph.getId(i));
+		}
+		// The edges are divided into parts by ranges of source nodes:
+		TiledGraphRenderer.EdgeSource edgeSource = new TiledGraphRenderer.EdgeSource() {
+			@Override
+			public int getPartCount() {
+				return (indexes.length + NODES_PER_PART - 1) / NODES_PER_PART;
+			}
+
+			@Override
+			public void sendEdges(int part, TiledGraphRenderer.EdgeHandler handler) {
+				int end = Math.min((part + 1) * NODES_PER_PART, indexes.length);
+				for (int i = part * NODES_PER_PART ; i < end ; i++) {
+					int id1 = indexes[i];
+					if (id1 == -1 || pointsX[id1] == 0) continue;
+					int n = graph.getReferenceCount(i);
+					for (int r = 0 ; r < n ; r++) {
+						int id2 = indexes[graph.getReference(i, r)];
+						if (id2 == -1 || pointsX[id2] == 0) continue;
+						handler.handleEdge(pointsX[id1], pointsY[id1], pointsX[id2], pointsY[id2]);
+					}
+				}
+			}
+		};
+		if (tiled) {
+			// Edges are read from the graph file again for each band of tiles instead of being kept in memory:
+			tiledRenderer.setEdgeSource(edgeSource);
+			return;
+		}
+		TiledGraphRenderer.EdgeHandler handler = new TiledGraphRenderer.EdgeHandler() {
+			@Override
+			public void handleEdge(float x1, float y1, float x2, float y2) {
+				graphDrawer.recordEdge(x1, y1, x2, y2);
+			}
+		};
+		for (int p = 0 ; p < edgeSource.getPartCount() ; p++) {
+			edgeSource.sendEdges(p, handler);
+		}
 		graphDrawer.finishEdgeDrawing();
 	}
 
@@ -290,25 +380,40 @@ public class RenderWosGraph {
 				errors++;
 				continue;
 			}
-			int id1 = entry.getIdInt();
-			if (pointsX[id1] == 0) continue;
+			int id1 = idDictionary.getIndex(entry.getIdInt());
+			if (id1 == -1 || pointsX[id1] == 0) continue;
 			String neighborIds = entry.getRef();
 			while (!neighborIds.isEmpty()) {
 				String nId = neighborIds.substring(0, 9);
-				int id2 = Integer.parseInt(nId);
+				int id2 = idDictionary.getIndex(nId);
 				neighborIds = neighborIds.substring(9);
-				if (pointsX[id2] == 0) continue;
+				if (id2 == -1 || pointsX[id2] == 0) continue;
 				// draw line
-				graphDrawer.recordEdge(pointsX[id1], pointsY[id1], pointsX[id2], pointsY[id2]);
+				recordEdge(id1, id2);
 			}
 		}
 		reader.close();
 		log("Number of errors: " + errors);
 	}
 
-	private void writeImage() throws IOException {
+	private void recordEdge(int i1, int i2) {
+		if (tiled) {
+			tiledRenderer.recordEdge(pointsX[i1], pointsY[i1], pointsX[i2], pointsY[i2]);
+		} else {
+			graphDrawer.recordEdge(pointsX[i1], pointsY[i1], pointsX[i2], pointsY[i2]);
+		}
+	}
+
+	private void writeImage() throws Exception {
+		BufferedImage image;
+		if (tiled) {
+			log("Rendering tiles with " + threads + " threads...");
+			image = tiledRenderer.render(threads);
+		} else {
+			image = graphDrawer.getImage();
+		}
 		log("Writing image to" + outputFile + " ...");
-		ImageIO.write(graphDrawer.getImage(), "png", outputFile);
+		ImageIO.write(image, "png", outputFile);
 	}
 
 	private String getOutputFileName() {
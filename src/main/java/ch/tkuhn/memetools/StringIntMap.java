@@ -0,0 +1,92 @@
+package ch.tkuhn.memetools;
+
+import java.util.Arrays;
+
+// Open-addressing hash map from strings to int values, without boxing. Null cannot be used as a key.
+public class StringIntMap {
+
+	private String[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	public StringIntMap() {
+		this(16);
+	}
+
+	public StringIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+		keys = new String[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(String key) {
+		return keys[findSlot(key)] != null;
+	}
+
+	public int get(String key, int defaultValue) {
+		int slot = findSlot(key);
+		if (keys[slot] == null) return defaultValue;
+		return values[slot];
+	}
+
+	public void put(String key, int value) {
+		int slot = findSlot(key);
+		if (keys[slot] == null) {
+			slot = insert(key);
+		}
+		values[slot] = value;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+
+	private int findSlot(String key) {
+		if (key == null) {
+			throw new IllegalArgumentException("Invalid key: null");
+		}
+		int slot = hash(key) & mask;
+		while (keys[slot] != null && !keys[slot].equals(key)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int insert(String key) {
+		if ((size + 1) * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		int slot = findSlot(key);
+		keys[slot] = key;
+		size++;
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		String[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new String[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		for (int i = 0 ; i < oldKeys.length ; i++) {
+			if (oldKeys[i] == null) continue;
+			int slot = findSlot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	private static int hash(String key) {
+		int h = key.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+}
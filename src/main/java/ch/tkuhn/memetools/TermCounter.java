@@ -0,0 +1,199 @@
+package ch.tkuhn.memetools;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Counts per term ID (non-negative ints, typically term index nodes), stored in parallel int arrays
+// with open addressing. Terms that are not contained have a count of 0.
+public class TermCounter {
+
+	private static final int NO_KEY = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	public TermCounter() {
+		this(16);
+	}
+
+	public TermCounter(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+		keys = new int[capacity];
+		Arrays.fill(keys, NO_KEY);
+		values = new int[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(int key) {
+		if (key < 0) return false;
+		return keys[findSlot(key)] != NO_KEY;
+	}
+
+	public int get(int key) {
+		if (key < 0) return 0;
+		int slot = findSlot(key);
+		if (keys[slot] == NO_KEY) return 0;
+		return values[slot];
+	}
+
+	public void put(int key, int value) {
+		int slot = getOrInsertSlot(key);
+		values[slot] = value;
+	}
+
+	public void increment(int key) {
+		int slot = getOrInsertSlot(key);
+		values[slot]++;
+	}
+
+	public void add(int key, int delta) {
+		int slot = getOrInsertSlot(key);
+		values[slot] += delta;
+	}
+
+	public void clear() {
+		if (size == 0) return;
+		Arrays.fill(keys, NO_KEY);
+		size = 0;
+	}
+
+	// Iteration over the entries: start with nextSlot(-1) and continue until -1 is returned.
+	public int nextSlot(int slot) {
+		for (int s = slot + 1 ; s < keys.length ; s++) {
+			if (keys[s] != NO_KEY) return s;
+		}
+		return -1;
+	}
+
+	public int getKeyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int getValueAt(int slot) {
+		return values[slot];
+	}
+
+	// Read-only map view with the terms materialized as strings.
+	public Map<String,Integer> asMap(final TermIndex termIndex) {
+		return new AbstractMap<String,Integer>() {
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				if (!(key instanceof String)) return false;
+				return TermCounter.this.containsKey(termIndex.getNode((String) key));
+			}
+
+			@Override
+			public Integer get(Object key) {
+				if (!(key instanceof String)) return null;
+				int node = termIndex.getNode((String) key);
+				if (!TermCounter.this.containsKey(node)) return null;
+				return TermCounter.this.get(node);
+			}
+
+			@Override
+			public Set<Map.Entry<String,Integer>> entrySet() {
+				return new AbstractSet<Map.Entry<String,Integer>>() {
+
+					@Override
+					public int size() {
+						return size;
+					}
+
+					@Override
+					public Iterator<Map.Entry<String,Integer>> iterator() {
+						return new Iterator<Map.Entry<String,Integer>>() {
+
+							private int slot = nextSlot(-1);
+
+							@Override
+							public boolean hasNext() {
+								return slot >= 0;
+							}
+
+							@Override
+							public Map.Entry<String,Integer> next() {
+								if (!hasNext()) throw new NoSuchElementException();
+								Map.Entry<String,Integer> e = new SimpleImmutableEntry<String,Integer>(
+										termIndex.getTerm(keys[slot]), values[slot]);
+								slot = nextSlot(slot);
+								return e;
+							}
+
+							@Override
+							public void remove() {
+								throw new UnsupportedOperationException();
+							}
+
+						};
+					}
+
+				};
+			}
+
+		};
+	}
+
+	private int findSlot(int key) {
+		int slot = hash(key) & mask;
+		while (keys[slot] != NO_KEY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int getOrInsertSlot(int key) {
+		if (key < 0) {
+			throw new IllegalArgumentException("Invalid key: " + key);
+		}
+		int slot = findSlot(key);
+		if (keys[slot] == NO_KEY) {
+			if ((size + 1) * 2 > keys.length) {
+				rehash(keys.length * 2);
+				slot = findSlot(key);
+			}
+			keys[slot] = key;
+			values[slot] = 0;
+			size++;
+		}
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[capacity];
+		Arrays.fill(keys, NO_KEY);
+		values = new int[capacity];
+		mask = capacity - 1;
+		for (int i = 0 ; i < oldKeys.length ; i++) {
+			if (oldKeys[i] == NO_KEY) continue;
+			int slot = findSlot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,240 @@
+package ch.tkuhn.memetools;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+// Trie over token IDs. Each node stands for the term (n-gram) spelled by the path from the root, so
+// terms can be identified by extending a node token by token instead of building strings.
+public class TermIndex {
+
+	public static final int ROOT = 0;
+	public static final int NONE = -1;
+
+	private static final byte TERM_FLAG = 1;
+	private static final byte BEGINNING_FLAG = 2;
+
+	private TokenDictionary dictionary;
+	private LongIntMap children;
+	private int[] parents;
+	private int[] nodeTokens;
+	private byte[] flags;
+	private int nodeCount;
+	private int termCount;
+	private TermMatcher matcher;
+
+	public TermIndex() {
+		dictionary = new TokenDictionary();
+		children = new LongIntMap();
+		parents = new int[1024];
+		nodeTokens = new int[1024];
+		flags = new byte[1024];
+		parents[ROOT] = NONE;
+		nodeTokens[ROOT] = NONE;
+		nodeCount = 1;
+		termCount = 0;
+	}
+
+	public TokenDictionary getDictionary() {
+		return dictionary;
+	}
+
+	public int size() {
+		return nodeCount;
+	}
+
+	public int getChild(int node, int token) {
+		if (node == NONE || token < 0) return NONE;
+		return children.get(getKey(node, token), NONE);
+	}
+
+	public int addChild(int node, int token) {
+		long key = getKey(node, token);
+		int child = children.get(key, NONE);
+		if (child == NONE) {
+			if (nodeCount == parents.length) {
+				int l = parents.length * 2;
+				parents = Arrays.copyOf(parents, l);
+				nodeTokens = Arrays.copyOf(nodeTokens, l);
+				flags = Arrays.copyOf(flags, l);
+			}
+			child = nodeCount++;
+			parents[child] = node;
+			nodeTokens[child] = token;
+			children.put(key, child);
+			matcher = null;
+		}
+		return child;
+	}
+
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	public int getToken(int node) {
+		return nodeTokens[node];
+	}
+
+	public int getNode(String term) {
+		int node = ROOT;
+		for (String token : term.split(" ")) {
+			node = getChild(node, dictionary.get(token));
+			if (node == NONE) break;
+		}
+		return node;
+	}
+
+	public int addTerm(String term) {
+		String[] tokens = term.split(" ");
+		int node = ROOT;
+		for (int i = 0 ; i < tokens.length ; i++) {
+			node = addChild(node, dictionary.add(tokens[i]));
+			if (i < tokens.length-1) setBeginning(node);
+		}
+		setTerm(node);
+		return node;
+	}
+
+	// Adds all nodes of the given index to this one and returns the mapping of node IDs.
+	public int[] addAll(TermIndex other) {
+		int[] tokenMap = new int[other.dictionary.size()];
+		Arrays.fill(tokenMap, NONE);
+		int[] nodeMap = new int[other.nodeCount];
+		nodeMap[ROOT] = ROOT;
+		// Parents always have smaller IDs than their children:
+		for (int n = 1 ; n < other.nodeCount ; n++) {
+			int t = other.nodeTokens[n];
+			if (tokenMap[t] == NONE) {
+				tokenMap[t] = dictionary.add(other.dictionary.getToken(t));
+			}
+			int node = addChild(nodeMap[other.parents[n]], tokenMap[t]);
+			if (other.isTerm(n)) setTerm(node);
+			if (other.isBeginning(n)) setBeginning(node);
+			nodeMap[n] = node;
+		}
+		return nodeMap;
+	}
+
+	public String getTerm(int node) {
+		int l = 0;
+		for (int n = node ; n != ROOT ; n = parents[n]) l++;
+		String[] tokens = new String[l];
+		for (int n = node ; n != ROOT ; n = parents[n]) {
+			tokens[--l] = dictionary.getToken(nodeTokens[n]);
+		}
+		return StringUtils.join(tokens, " ");
+	}
+
+	public boolean isTerm(int node) {
+		return (flags[node] & TERM_FLAG) != 0;
+	}
+
+	public void setTerm(int node) {
+		if (isTerm(node)) return;
+		termCount++;
+		flags[node] |= TERM_FLAG;
+		matcher = null;
+	}
+
+	public boolean isBeginning(int node) {
+		return (flags[node] & BEGINNING_FLAG) != 0;
+	}
+
+	public void setBeginning(int node) {
+		flags[node] |= BEGINNING_FLAG;
+	}
+
+	public int getTermCount() {
+		return termCount;
+	}
+
+	// Returns a matcher for the current terms, which is created anew after changes to the index.
+	public synchronized TermMatcher getMatcher() {
+		if (matcher == null) {
+			matcher = new TermMatcher(this);
+		}
+		return matcher;
+	}
+
+	public Map<String,Boolean> getTermMap() {
+		return termMap;
+	}
+
+	private static long getKey(int node, int token) {
+		return ((long) node << 32) | token;
+	}
+
+	private Map<String,Boolean> termMap = new AbstractMap<String,Boolean>() {
+
+		@Override
+		public int size() {
+			return termCount;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Boolean get(Object key) {
+			if (!(key instanceof String)) return null;
+			int node = getNode((String) key);
+			if (node == NONE || !isTerm(node)) return null;
+			return true;
+		}
+
+		@Override
+		public Set<Map.Entry<String,Boolean>> entrySet() {
+			return new AbstractSet<Map.Entry<String,Boolean>>() {
+
+				@Override
+				public int size() {
+					return termCount;
+				}
+
+				@Override
+				public Iterator<Map.Entry<String,Boolean>> iterator() {
+					return new Iterator<Map.Entry<String,Boolean>>() {
+
+						private int node = nextTermNode(ROOT);
+
+						@Override
+						public boolean hasNext() {
+							return node < nodeCount;
+						}
+
+						@Override
+						public Map.Entry<String,Boolean> next() {
+							if (!hasNext()) throw new NoSuchElementException();
+							Map.Entry<String,Boolean> e = new SimpleImmutableEntry<String,Boolean>(getTerm(node), true);
+							node = nextTermNode(node);
+							return e;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+
+					};
+				}
+
+			};
+		}
+
+	};
+
+	private int nextTermNode(int node) {
+		node++;
+		while (node < nodeCount && !isTerm(node)) node++;
+		return node;
+	}
+
+}
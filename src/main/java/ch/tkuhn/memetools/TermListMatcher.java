@@ -0,0 +1,68 @@
+package ch.tkuhn.memetools;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Finds the terms of a given list in texts, with one pass over the tokens of each text. Texts are split
+// at single spaces, so a term is found exactly if it occurs in the text surrounded by spaces or at the
+// beginning or end. Terms are identified by their positions in the list; duplicate terms are reported
+// at all their positions. Instances are not thread-safe.
+public class TermListMatcher {
+
+	private static final int NONE = -1;
+
+	private TermIndex termIndex;
+	private TermMatcher matcher;
+	private int[] firstPositions;
+	private int[] nextPositions;
+	private int[] stamps;
+	private int stamp;
+	private int[] found;
+
+	public TermListMatcher(List<String> terms) {
+		termIndex = new TermIndex();
+		int[] nodes = new int[terms.size()];
+		for (int i = 0 ; i < terms.size() ; i++) {
+			// Split in the same way as texts (keeping empty tokens):
+			int node = TermIndex.ROOT;
+			for (String token : terms.get(i).split(" ", -1)) {
+				node = termIndex.addChild(node, termIndex.getDictionary().add(token));
+			}
+			termIndex.setTerm(node);
+			nodes[i] = node;
+		}
+		matcher = termIndex.getMatcher();
+		firstPositions = new int[termIndex.size()];
+		Arrays.fill(firstPositions, NONE);
+		nextPositions = new int[terms.size()];
+		for (int i = terms.size() - 1 ; i >= 0 ; i--) {
+			nextPositions[i] = firstPositions[nodes[i]];
+			firstPositions[nodes[i]] = i;
+		}
+		stamps = new int[termIndex.size()];
+		stamp = 0;
+		found = new int[16];
+	}
+
+	// Returns the positions of the terms that occur in the given text, in ascending order
+	public int[] findTerms(String text) {
+		stamp++;
+		int count = 0;
+		TokenDictionary dictionary = termIndex.getDictionary();
+		int state = TermMatcher.ROOT;
+		for (String token : text.split(" ", -1)) {
+			state = matcher.next(state, dictionary.get(token));
+			for (int node = matcher.getTerm(state) ; node != TermMatcher.NONE ; node = matcher.getNextTerm(node)) {
+				if (stamps[node] == stamp) continue;
+				stamps[node] = stamp;
+				for (int i = firstPositions[node] ; i != NONE ; i = nextPositions[i]) {
+					if (count == found.length) found = Arrays.copyOf(found, count * 2);
+					found[count++] = i;
+				}
+			}
+		}
+		Arrays.sort(found, 0, count);
+		return Arrays.copyOf(found, count);
+	}
+
+}
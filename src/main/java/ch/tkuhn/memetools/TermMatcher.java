@@ -0,0 +1,86 @@
+package ch.tkuhn.memetools;
+
+// Aho-Corasick automaton on top of a term index: the states are the trie nodes, extended with
+// failure links and links to the next shorter term ending at the same position. This finds all term
+// occurrences in a token sequence in one left-to-right pass. The matcher does not see terms that are
+// added to the index after its creation.
+public class TermMatcher {
+
+	public static final int ROOT = TermIndex.ROOT;
+	public static final int NONE = TermIndex.NONE;
+
+	private TermIndex termIndex;
+	private int[] depth;
+	private int[] failure;
+	private int[] output;
+
+	public TermMatcher(TermIndex termIndex) {
+		this.termIndex = termIndex;
+		int n = termIndex.size();
+		depth = new int[n];
+		failure = new int[n];
+		output = new int[n];
+
+		// Parents always have smaller IDs than their children:
+		int maxDepth = 0;
+		for (int node = 1 ; node < n ; node++) {
+			depth[node] = depth[termIndex.getParent(node)] + 1;
+			maxDepth = Math.max(maxDepth, depth[node]);
+		}
+		// Failure links point to shallower nodes, so nodes are processed in the order of their depth:
+		int[] buckets = new int[maxDepth + 2];
+		for (int node = 0 ; node < n ; node++) {
+			buckets[depth[node] + 1]++;
+		}
+		for (int d = 1 ; d < buckets.length ; d++) {
+			buckets[d] += buckets[d-1];
+		}
+		int[] nodesByDepth = new int[n];
+		for (int node = 0 ; node < n ; node++) {
+			nodesByDepth[buckets[depth[node]]++] = node;
+		}
+
+		failure[ROOT] = NONE;
+		output[ROOT] = NONE;
+		for (int i = 1 ; i < n ; i++) {
+			int node = nodesByDepth[i];
+			int parent = termIndex.getParent(node);
+			int fail = ROOT;
+			if (parent != ROOT) {
+				fail = next(failure[parent], termIndex.getToken(node));
+			}
+			failure[node] = fail;
+			if (termIndex.isTerm(fail)) {
+				output[node] = fail;
+			} else {
+				output[node] = output[fail];
+			}
+		}
+	}
+
+	public int next(int state, int token) {
+		while (true) {
+			int child = termIndex.getChild(state, token);
+			if (child != NONE) return child;
+			if (state == ROOT) return ROOT;
+			state = failure[state];
+		}
+	}
+
+	// Returns the longest term ending in the given state, or NONE
+	public int getTerm(int state) {
+		if (termIndex.isTerm(state)) return state;
+		return output[state];
+	}
+
+	// Returns the next shorter term ending at the same position as the given term, or NONE
+	public int getNextTerm(int term) {
+		return output[term];
+	}
+
+	// Number of tokens of the term (or any node)
+	public int getLength(int node) {
+		return depth[node];
+	}
+
+}
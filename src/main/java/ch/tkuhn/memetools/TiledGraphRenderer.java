@@ -0,0 +1,395 @@
+package ch.tkuhn.memetools;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Renders graphs with many nodes and edges into a square bitmap. The canvas is split into square tiles,
+// which are rendered band by band (one row of tiles at a time): the edges are assigned to the tiles of
+// the band they cross, and these tiles are then rasterized in parallel. Edges are either recorded
+// beforehand or read from an edge source for each band, so they do not need to be kept in memory.
+// Edge sources are divided into parts, which are assigned to the tiles in parallel.
+// Edges are black lines on a white background whose transparencies are multiplied per pixel, so the
+// result does not depend on their order. Nodes are dots drawn over the edges in the order they were
+// recorded. Coordinates are multiplied with the scaling factor; the y-axis points upwards.
+public class TiledGraphRenderer {
+
+	public interface EdgeSource {
+
+		public int getPartCount();
+
+		// Passes the edges of the given part to the handler; called once per band of tiles, and
+		// concurrently for different parts
+		public void sendEdges(int part, EdgeHandler handler) throws IOException;
+
+	}
+
+	public interface EdgeHandler {
+
+		public void handleEdge(float x1, float y1, float x2, float y2);
+
+	}
+
+	private int size;
+	private float scale;
+	private int tileSize;
+	private int tilesPerRow;
+	private float edgeAlpha = 0.1f;
+	private int nodeSize = 1;
+
+	private EdgeSource edgeSource;
+	// Recorded edges, if there is no edge source:
+	private EdgeList edges = new EdgeList();
+
+	private float[] nodeX = new float[1024];
+	private float[] nodeY = new float[1024];
+	private int[] nodeColors = new int[1024];
+	private int nodeCount = 0;
+	// Indexes of the nodes per tile:
+	private int[][] tileNodes;
+	private int[] tileNodeCounts;
+
+	public TiledGraphRenderer(int size, float scale, int tileSize) {
+		this.size = size;
+		this.scale = scale;
+		this.tileSize = tileSize;
+		tilesPerRow = (size + tileSize - 1) / tileSize;
+		int tileCount = tilesPerRow * tilesPerRow;
+		tileNodes = new int[tileCount][];
+		tileNodeCounts = new int[tileCount];
+	}
+
+	public void setEdgeAlpha(float edgeAlpha) {
+		this.edgeAlpha = edgeAlpha;
+	}
+
+	public void setNodeSize(int nodeSize) {
+		this.nodeSize = nodeSize;
+	}
+
+	// Edges are read from the given source instead of the recorded ones
+	public void setEdgeSource(EdgeSource edgeSource) {
+		this.edgeSource = edgeSource;
+	}
+
+	public void recordEdge(float x1, float y1, float x2, float y2) {
+		edges.add(x1, y1, x2, y2);
+	}
+
+	public void drawNode(float x, float y, Color color) {
+		float px = getPixelX(x);
+		float py = getPixelY(y);
+		float r = nodeSize / 2.0f;
+		int tx1 = getTile(px - r);
+		int tx2 = getTile(px + r);
+		int ty1 = getTile(py - r);
+		int ty2 = getTile(py + r);
+		if (tx2 < 0 || ty2 < 0 || tx1 >= tilesPerRow || ty1 >= tilesPerRow) return;
+		int n = nodeCount;
+		nodeCount++;
+		if (n == nodeX.length) {
+			nodeX = Arrays.copyOf(nodeX, n * 2);
+			nodeY = Arrays.copyOf(nodeY, n * 2);
+			nodeColors = Arrays.copyOf(nodeColors, n * 2);
+		}
+		nodeX[n] = px;
+		nodeY[n] = py;
+		nodeColors[n] = color.getRGB();
+		for (int ty = Math.max(ty1, 0) ; ty <= Math.min(ty2, tilesPerRow - 1) ; ty++) {
+			for (int tx = Math.max(tx1, 0) ; tx <= Math.min(tx2, tilesPerRow - 1) ; tx++) {
+				int t = ty * tilesPerRow + tx;
+				if (tileNodes[t] == null) {
+					tileNodes[t] = new int[16];
+				} else if (tileNodeCounts[t] == tileNodes[t].length) {
+					tileNodes[t] = Arrays.copyOf(tileNodes[t], tileNodeCounts[t] * 2);
+				}
+				tileNodes[t][tileNodeCounts[t]++] = n;
+			}
+		}
+	}
+
+	public BufferedImage render(int threads) throws Exception {
+		final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			EdgeSource source = edgeSource;
+			if (source == null) source = new RecordedEdgeSource();
+			for (int band = 0 ; band < tilesPerRow ; band++) {
+				final EdgeList[] bandEdges = collectEdges(band, source, executor);
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (int tx = 0 ; tx < tilesPerRow ; tx++) {
+					final int tile = band * tilesPerRow + tx;
+					final EdgeList tileEdges = bandEdges[tx];
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							renderTile(tile, tileEdges, image);
+						}
+					}));
+				}
+				for (Future<?> f : futures) {
+					f.get();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return image;
+	}
+
+	// Returns the edges (in pixel coordinates) for each tile of the given band. The parts of the edge
+	// source are processed in parallel, each into lists of its own, which are then concatenated.
+	private EdgeList[] collectEdges(int band, final EdgeSource source, ExecutorService executor) throws Exception {
+		// The band is extended by a margin of one pixel to account for rounding:
+		final float bandStart = band * tileSize - 1;
+		final float bandEnd = Math.min((band + 1) * tileSize, size) + 1;
+		List<Future<EdgeList[]>> futures = new ArrayList<Future<EdgeList[]>>();
+		for (int p = 0 ; p < source.getPartCount() ; p++) {
+			final int part = p;
+			futures.add(executor.submit(new Callable<EdgeList[]>() {
+				@Override
+				public EdgeList[] call() throws IOException {
+					final EdgeList[] partEdges = newEdgeLists();
+					source.sendEdges(part, new EdgeHandler() {
+						@Override
+						public void handleEdge(float x1, float y1, float x2, float y2) {
+							binEdge(partEdges, bandStart, bandEnd, getPixelX(x1), getPixelY(y1), getPixelX(x2), getPixelY(y2));
+						}
+					});
+					return partEdges;
+				}
+			}));
+		}
+		EdgeList[] bandEdges = newEdgeLists();
+		for (Future<EdgeList[]> f : futures) {
+			EdgeList[] partEdges = f.get();
+			for (int tx = 0 ; tx < tilesPerRow ; tx++) {
+				bandEdges[tx].append(partEdges[tx]);
+			}
+		}
+		return bandEdges;
+	}
+
+	private EdgeList[] newEdgeLists() {
+		EdgeList[] lists = new EdgeList[tilesPerRow];
+		for (int tx = 0 ; tx < tilesPerRow ; tx++) {
+			lists[tx] = new EdgeList();
+		}
+		return lists;
+	}
+
+	// Adds the edge to the tiles of the band that it crosses: the part of the edge within the band
+	// covers an interval in x-direction, and all tiles in this interval are crossed.
+	private void binEdge(EdgeList[] bandEdges, float bandStart, float bandEnd, float x1, float y1, float x2, float y2) {
+		float xa, xb;
+		if (y1 == y2) {
+			if (y1 < bandStart || y1 > bandEnd) return;
+			xa = x1;
+			xb = x2;
+		} else {
+			float ta = (bandStart - y1) / (y2 - y1);
+			float tb = (bandEnd - y1) / (y2 - y1);
+			float tMin = Math.max(0, Math.min(ta, tb));
+			float tMax = Math.min(1, Math.max(ta, tb));
+			if (tMin > tMax) return;
+			xa = x1 + (x2 - x1) * tMin;
+			xb = x1 + (x2 - x1) * tMax;
+		}
+		int tx1 = Math.max(0, getTile(Math.min(xa, xb) - 1));
+		int tx2 = Math.min(tilesPerRow - 1, getTile(Math.max(xa, xb) + 1));
+		for (int tx = tx1 ; tx <= tx2 ; tx++) {
+			// The whole edge is added, so all tiles calculate the same pixels for it:
+			bandEdges[tx].add(x1, y1, x2, y2);
+		}
+	}
+
+	private void renderTile(int tile, EdgeList tileEdges, BufferedImage image) {
+		int x0 = (tile % tilesPerRow) * tileSize;
+		int y0 = (tile / tilesPerRow) * tileSize;
+		int w = Math.min(tileSize, size - x0);
+		int h = Math.min(tileSize, size - y0);
+
+		// Share of the background that shines through the edges:
+		float[] transp = new float[w * h];
+		Arrays.fill(transp, 1.0f);
+		float f = 1.0f - edgeAlpha;
+		for (int b = 0 ; b < tileEdges.getBlockCount() ; b++) {
+			float[] block = tileEdges.getBlock(b);
+			int l = tileEdges.getBlockLength(b);
+			for (int p = 0 ; p < l ; p += 4) {
+				drawLine(transp, x0, y0, w, h, block[p], block[p + 1], block[p + 2], block[p + 3], f);
+			}
+		}
+
+		float[] rgb = new float[w * h * 3];
+		for (int i = 0 ; i < transp.length ; i++) {
+			rgb[i * 3] = rgb[i * 3 + 1] = rgb[i * 3 + 2] = transp[i];
+		}
+		float r = nodeSize / 2.0f;
+		for (int i = 0 ; i < tileNodeCounts[tile] ; i++) {
+			int n = tileNodes[tile][i];
+			drawDot(rgb, x0, y0, w, h, nodeX[n], nodeY[n], r, nodeColors[n]);
+		}
+
+		int[] pixels = new int[w * h];
+		for (int i = 0 ; i < pixels.length ; i++) {
+			int red = Math.round(rgb[i * 3] * 255);
+			int green = Math.round(rgb[i * 3 + 1] * 255);
+			int blue = Math.round(rgb[i * 3 + 2] * 255);
+			pixels[i] = (red << 16) | (green << 8) | blue;
+		}
+		// Tiles do not overlap, so they can be written concurrently:
+		image.setRGB(x0, y0, w, h, pixels, 0, w);
+	}
+
+	// Multiplies the pixels of the line with the given factor, with one pixel for each column (or row,
+	// for steep lines) that the line covers. Only the columns (or rows) of the tile are calculated.
+	private static void drawLine(float[] transp, int x0, int y0, int w, int h, float x1, float y1, float x2, float y2, float f) {
+		if (Math.abs(x2 - x1) >= Math.abs(y2 - y1)) {
+			if (x2 < x1) {
+				float t = x1; x1 = x2; x2 = t;
+				t = y1; y1 = y2; y2 = t;
+			}
+			float slope = (x2 == x1 ? 0 : (y2 - y1) / (x2 - x1));
+			int first = Math.max((int) Math.floor(x1), x0);
+			int last = Math.min((int) Math.floor(x2), x0 + w - 1);
+			for (int px = first ; px <= last ; px++) {
+				// Center of the column, restricted to the line:
+				float x = Math.min(Math.max(px + 0.5f, x1), x2);
+				int py = (int) Math.floor(y1 + (x - x1) * slope);
+				if (py < y0 || py >= y0 + h) continue;
+				transp[(py - y0) * w + (px - x0)] *= f;
+			}
+		} else {
+			if (y2 < y1) {
+				float t = x1; x1 = x2; x2 = t;
+				t = y1; y1 = y2; y2 = t;
+			}
+			float slope = (x2 - x1) / (y2 - y1);
+			int first = Math.max((int) Math.floor(y1), y0);
+			int last = Math.min((int) Math.floor(y2), y0 + h - 1);
+			for (int py = first ; py <= last ; py++) {
+				float y = Math.min(Math.max(py + 0.5f, y1), y2);
+				int px = (int) Math.floor(x1 + (y - y1) * slope);
+				if (px < x0 || px >= x0 + w) continue;
+				transp[(py - y0) * w + (px - x0)] *= f;
+			}
+		}
+	}
+
+	// Draws a dot with the pixels whose centers are within the radius (at least the center pixel)
+	private static void drawDot(float[] rgb, int x0, int y0, int w, int h, float x, float y, float r, int color) {
+		float a = ((color >>> 24) & 0xff) / 255.0f;
+		float red = ((color >> 16) & 0xff) / 255.0f;
+		float green = ((color >> 8) & 0xff) / 255.0f;
+		float blue = (color & 0xff) / 255.0f;
+		int cx = (int) Math.floor(x);
+		int cy = (int) Math.floor(y);
+		int ri = (int) Math.ceil(r);
+		for (int py = cy - ri ; py <= cy + ri ; py++) {
+			if (py < y0 || py >= y0 + h) continue;
+			for (int px = cx - ri ; px <= cx + ri ; px++) {
+				if (px < x0 || px >= x0 + w) continue;
+				float ddx = px + 0.5f - x;
+				float ddy = py + 0.5f - y;
+				if (ddx*ddx + ddy*ddy > r*r && (px != cx || py != cy)) continue;
+				int i = ((py - y0) * w + (px - x0)) * 3;
+				rgb[i] = rgb[i] * (1 - a) + red * a;
+				rgb[i + 1] = rgb[i + 1] * (1 - a) + green * a;
+				rgb[i + 2] = rgb[i + 2] * (1 - a) + blue * a;
+			}
+		}
+	}
+
+	private float getPixelX(float x) {
+		return x * scale;
+	}
+
+	private float getPixelY(float y) {
+		return size - y * scale;
+	}
+
+	private int getTile(float p) {
+		return (int) Math.floor(p / tileSize);
+	}
+
+
+	// Growable list of edges (four coordinates per edge), in blocks that grow up to 2^BLOCK_SHIFT edges
+	private static class EdgeList {
+
+		private static final int BLOCK_SHIFT = 16;
+		private static final int MIN_BLOCK_SHIFT = 6;
+
+		private List<float[]> blocks = new ArrayList<float[]>();
+		// Number of coordinates per block:
+		private int[] blockLengths = new int[4];
+
+		void add(float x1, float y1, float x2, float y2) {
+			int b = blocks.size() - 1;
+			if (b == -1 || blockLengths[b] == blocks.get(b).length) {
+				int l = (b == -1 ? 4 << MIN_BLOCK_SHIFT : Math.min(blocks.get(b).length * 2, 4 << BLOCK_SHIFT));
+				blocks.add(new float[l]);
+				b++;
+				if (b == blockLengths.length) blockLengths = Arrays.copyOf(blockLengths, b * 2);
+			}
+			float[] block = blocks.get(b);
+			int p = blockLengths[b];
+			block[p] = x1;
+			block[p + 1] = y1;
+			block[p + 2] = x2;
+			block[p + 3] = y2;
+			blockLengths[b] = p + 4;
+		}
+
+		// Takes over the blocks of the given list
+		void append(EdgeList other) {
+			for (int b = 0 ; b < other.blocks.size() ; b++) {
+				if (blocks.size() == blockLengths.length) blockLengths = Arrays.copyOf(blockLengths, blocks.size() * 2);
+				blockLengths[blocks.size()] = other.blockLengths[b];
+				blocks.add(other.blocks.get(b));
+			}
+		}
+
+		int getBlockCount() {
+			return blocks.size();
+		}
+
+		float[] getBlock(int b) {
+			return blocks.get(b);
+		}
+
+		// Number of coordinates in the given block
+		int getBlockLength(int b) {
+			return blockLengths[b];
+		}
+
+	}
+
+
+	// Recorded edges, with one part per block
+	private class RecordedEdgeSource implements EdgeSource {
+
+		@Override
+		public int getPartCount() {
+			return edges.getBlockCount();
+		}
+
+		@Override
+		public void sendEdges(int part, EdgeHandler handler) {
+			float[] block = edges.getBlock(part);
+			int l = edges.getBlockLength(part);
+			for (int p = 0 ; p < l ; p += 4) {
+				handler.handleEdge(block[p], block[p + 1], block[p + 2], block[p + 3]);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package ch.tkuhn.memetools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TokenDictionary {
+
+	public static final int NONE = -1;
+
+	private Map<String,Integer> ids = new HashMap<String,Integer>();
+	private List<String> tokens = new ArrayList<String>();
+
+	public TokenDictionary() {
+	}
+
+	public int add(String token) {
+		Integer id = ids.get(token);
+		if (id == null) {
+			id = tokens.size();
+			ids.put(token, id);
+			tokens.add(token);
+		}
+		return id;
+	}
+
+	public int get(String token) {
+		Integer id = ids.get(token);
+		if (id == null) return NONE;
+		return id;
+	}
+
+	public String getToken(int id) {
+		return tokens.get(id);
+	}
+
+	public int size() {
+		return tokens.size();
+	}
+
+}
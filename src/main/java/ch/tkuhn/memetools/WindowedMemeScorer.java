@@ -0,0 +1,110 @@
+package ch.tkuhn.memetools;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Meme scorer for a sliding window that consists of a fixed number of bins. The counts of a bin are
+// added to running totals when the bin is completed and subtracted again when the bin is reused, so
+// the values for the whole window are available without summing over the bins.
+public class WindowedMemeScorer {
+
+	private MemeScorer[] bins;
+	private MemeScorer total;
+	private int current;
+	private boolean evictCurrent;
+	private Set<String> changedTerms;
+	private int changedT;
+
+	public WindowedMemeScorer(int mode, int binCount) {
+		bins = new MemeScorer[binCount];
+		bins[0] = new MemeScorer(mode);
+		for (int i = 1 ; i < binCount ; i++) {
+			bins[i] = new MemeScorer(bins[0], mode);
+		}
+		total = new MemeScorer(bins[0], mode);
+		current = 0;
+		evictCurrent = false;
+		changedTerms = new HashSet<String>();
+		changedT = -1;
+	}
+
+	public void addTerm(String term) {
+		bins[0].addTerm(term);
+	}
+
+	public void screenTerms(DataEntry d) {
+		bins[0].screenTerms(d);
+	}
+
+	public Map<String,Boolean> getTerms() {
+		return bins[0].getTerms();
+	}
+
+	public void recordTerms(DataEntry d) {
+		if (evictCurrent) evictCurrentBin();
+		bins[current].recordTerms(d);
+	}
+
+	// Adds the current bin to the window totals and moves on to the next bin. The oldest bin is
+	// evicted only when new entries are recorded, so the totals cover all bins until then.
+	public void completeBin() {
+		if (evictCurrent) evictCurrentBin();
+		total.merge(bins[current]);
+		bins[current].collectCountedTerms(changedTerms);
+		current = (current + 1) % bins.length;
+		evictCurrent = true;
+	}
+
+	private void evictCurrentBin() {
+		total.subtract(bins[current]);
+		bins[current].collectCountedTerms(changedTerms);
+		bins[current].clear();
+		evictCurrent = false;
+	}
+
+	// Returns the terms whose window counts changed since the last call. A change of the total number
+	// of entries affects the scores of all terms, in which case all terms are returned.
+	public Set<String> takeChangedTerms() {
+		Set<String> changed = changedTerms;
+		changedTerms = new HashSet<String>();
+		if (total.getT() != changedT) {
+			changedT = total.getT();
+			return getTerms().keySet();
+		}
+		return changed;
+	}
+
+	public int getCurrentBin() {
+		return current;
+	}
+
+	public int getT() {
+		return total.getT();
+	}
+
+	public int getF(String term) {
+		return total.getF(term);
+	}
+
+	public int getMM(String term) {
+		return total.getMM(term);
+	}
+
+	public int getM(String term) {
+		return total.getM(term);
+	}
+
+	public int getXM(String term) {
+		return total.getXM(term);
+	}
+
+	public int getX(String term) {
+		return total.getX(term);
+	}
+
+	public double[] calculateMemeScoreValues(String term, int delta) {
+		return total.calculateMemeScoreValues(term, delta);
+	}
+
+}
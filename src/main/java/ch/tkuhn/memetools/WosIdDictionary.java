@@ -0,0 +1,64 @@
+package ch.tkuhn.memetools;
+
+import java.util.Arrays;
+
+// Dictionary from the sparse 9-digit WoS IDs to dense indexes 0..n-1, which follow the order of the
+// IDs. IDs are added first (duplicates are allowed); indexes can only be retrieved after the
+// dictionary is frozen.
+public class WosIdDictionary {
+
+	private int[] ids = new int[1024];
+	private int size = 0;
+
+	private boolean frozen = false;
+
+	public WosIdDictionary() {
+	}
+
+	public void add(int id) {
+		if (frozen) {
+			throw new RuntimeException("Frozen");
+		}
+		if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+		ids[size++] = id;
+	}
+
+	public void freeze() {
+		frozen = true;
+		Arrays.sort(ids, 0, size);
+		int n = 0;
+		for (int i = 0 ; i < size ; i++) {
+			if (n > 0 && ids[i] == ids[n-1]) continue;
+			ids[n++] = ids[i];
+		}
+		ids = Arrays.copyOf(ids, n);
+		size = n;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Returns the index of the given ID, or -1 if the ID is not in the dictionary
+	public int getIndex(int id) {
+		if (!frozen) {
+			throw new RuntimeException("Not yet frozen");
+		}
+		int i = Arrays.binarySearch(ids, id);
+		if (i < 0) return -1;
+		return i;
+	}
+
+	public int getIndex(String id) {
+		return getIndex(Integer.parseInt(id));
+	}
+
+	public int getId(int index) {
+		return ids[index];
+	}
+
+	public String getIdString(int index) {
+		return String.format("%09d", ids[index]);
+	}
+
+}